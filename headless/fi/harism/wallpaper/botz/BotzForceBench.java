@@ -0,0 +1,137 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Checks Barnes-Hut force field against exact pairwise one and compares
+ * their speed. Particles are placed away from view walls and have zero
+ * radius, so velocity change over one step comes from force field only.
+ * Exits with error if velocity error exceeds documented bound. Pairwise
+ * steps over 50000 particles take minutes. Usage;
+ * 
+ * BotzForceBench [steps] [theta] [particles...]
+ */
+public final class BotzForceBench {
+
+	// Largest velocity error allowed, relative to largest velocity change
+	// given by pairwise force field. Opening angles up to 1 stay within float
+	// rounding of exact result, error grows quickly above that.
+	private static final double MAX_ERROR = 1e-3;
+	// Default particle counts benchmarked.
+	private static final int[] SIZES = { 1000, 10000, 50000 };
+	// Animation step length, in milliseconds.
+	private static final long STEP_TIME = 16;
+
+	/**
+	 * Creates solver in given force mode over copies of given particle
+	 * positions.
+	 */
+	private static BotzSolver createSolver(int mode, float theta,
+			float[] posX, float[] posY, Vector<BotzParticle> particles) {
+		BotzSolver solver = new BotzSolver();
+		for (int i = 0; i < posX.length; ++i) {
+			particles.add(new BotzParticle());
+		}
+		solver.init(particles, -2, 2, 2, -2);
+		for (int i = 0; i < posX.length; ++i) {
+			BotzParticle p = particles.get(i);
+			p.mPosition[0] = posX[i];
+			p.mPosition[1] = posY[i];
+			p.mVelocity[0] = p.mVelocity[1] = 0;
+		}
+		solver.setForceMode(mode);
+		solver.setForceTheta(theta);
+		// First step only initializes solver time.
+		solver.animate(0);
+		return solver;
+	}
+
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		float theta = args.length > 1 ? Float.parseFloat(args[1]) : .5f;
+		int[] sizes = SIZES;
+		if (args.length > 2) {
+			sizes = new int[args.length - 2];
+			for (int i = 0; i < sizes.length; ++i) {
+				sizes[i] = Integer.parseInt(args[i + 2]);
+			}
+		}
+		Random random = new Random(1);
+		boolean failed = false;
+
+		for (int size : sizes) {
+			float[] posX = new float[size], posY = new float[size];
+			for (int i = 0; i < size; ++i) {
+				posX[i] = random.nextFloat() * 2 - 1;
+				posY[i] = random.nextFloat() * 2 - 1;
+			}
+			Vector<BotzParticle> exact = new Vector<BotzParticle>();
+			Vector<BotzParticle> approx = new Vector<BotzParticle>();
+			BotzSolver solverExact = createSolver(BotzSolver.FORCE_PAIRWISE,
+					theta, posX, posY, exact);
+			BotzSolver solverApprox = createSolver(
+					BotzSolver.FORCE_BARNES_HUT, theta, posX, posY, approx);
+			// Particle objects keep their index here, solver may reorder
+			// its Vector.
+			BotzParticle[] exactParticles = exact.toArray(new BotzParticle[0]);
+			BotzParticle[] approxParticles = approx
+					.toArray(new BotzParticle[0]);
+
+			long start = System.nanoTime();
+			solverExact.animate(STEP_TIME);
+			long timeExact = System.nanoTime() - start;
+			start = System.nanoTime();
+			solverApprox.animate(STEP_TIME);
+			long timeApprox = System.nanoTime() - start;
+
+			double maxError = 0, maxChange = 0;
+			for (int i = 0; i < size; ++i) {
+				float[] v0 = exactParticles[i].mVelocity;
+				float[] v1 = approxParticles[i].mVelocity;
+				maxChange = Math.max(maxChange, Math.hypot(v0[0], v0[1]));
+				maxError = Math.max(maxError,
+						Math.hypot(v1[0] - v0[0], v1[1] - v0[1]));
+			}
+			double error = maxError / maxChange;
+			System.out.printf("%5d particles, theta %.2f, max velocity "
+					+ "error %.3g, %.3g relative (bound %.3g)%n", size,
+					theta, maxError, error, MAX_ERROR);
+			failed |= error > MAX_ERROR;
+
+			// Fastest step is reported, first one includes JIT warm up.
+			for (int i = 1; i <= steps; ++i) {
+				start = System.nanoTime();
+				solverExact.animate(STEP_TIME * (i + 1));
+				timeExact = Math.min(timeExact, System.nanoTime() - start);
+				start = System.nanoTime();
+				solverApprox.animate(STEP_TIME * (i + 1));
+				timeApprox = Math.min(timeApprox, System.nanoTime() - start);
+			}
+			System.out.printf("%5d particles, pairwise %9.2f ms/step, "
+					+ "Barnes-Hut %7.2f ms/step%n", size, timeExact / 1e6,
+					timeApprox / 1e6);
+		}
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,975 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Software rasterizer implementing the small BotzGL feature set this
+ * wallpaper uses. Shader programs are not interpreted, instead transform and
+ * shade methods implement scene, copy and spark shaders found in res/raw.
+ * Renders into an ARGB IntBuffer, or into an RGB texture attached to a
+ * framebuffer object, rows ordered top to bottom.
+ */
+public final class BotzGLSoftware implements BotzGL {
+
+	private static final int MAX_ATTRIBS = 16;
+	// Number of varying floats; color, local position and parameters.
+	private static final int VARYINGS = 10;
+	private static final float[] ZERO = new float[16];
+
+	private final float[] mAttrib0 = new float[4];
+	private final float[] mAttrib1 = new float[4];
+	private final float[] mAttrib2 = new float[4];
+	private final Attrib[] mAttribs = new Attrib[MAX_ATTRIBS];
+	private boolean mBlend;
+	private int mBoundBuffer;
+	private Texture mBoundTexture;
+	private final float[] mClearColor = new float[4];
+	private final IntBuffer mColorBuffer;
+	private final float[] mFragColor = new float[4];
+	private final float[] mFragVarying = new float[VARYINGS];
+	private int mFramebuffer;
+	private final int mHeight;
+	private float mLineWidth = 1f;
+	private int mNextName = 1;
+	private final HashMap<Integer, Object> mObjects = new HashMap<Integer, Object>();
+	private final int[] mPixels;
+	private Program mProgram;
+	// Current render target, color buffer or framebuffer texture.
+	private int[] mTarget;
+	private int mTargetWidth, mTargetHeight;
+	// Transformed vertices in window coordinates and their varyings.
+	private boolean[] mVertHidden = new boolean[0];
+	private float[] mVertVarying = new float[0];
+	private float[] mVertX = new float[0];
+	private float[] mVertY = new float[0];
+	private int mViewportX, mViewportY, mViewportWidth, mViewportHeight;
+	private final int mWidth;
+
+	/**
+	 * Creates rasterizer with color buffer of given size.
+	 */
+	public BotzGLSoftware(int width, int height) {
+		mWidth = mViewportWidth = width;
+		mHeight = mViewportHeight = height;
+		mPixels = new int[width * height];
+		mColorBuffer = IntBuffer.wrap(mPixels);
+		mTarget = mPixels;
+		mTargetWidth = width;
+		mTargetHeight = height;
+		for (int i = 0; i < MAX_ATTRIBS; ++i) {
+			mAttribs[i] = new Attrib();
+		}
+	}
+
+	/**
+	 * Returns edge function value for point (px, py) against edge a to b.
+	 */
+	private static float edge(float ax, float ay, float bx, float by,
+			float px, float py) {
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+
+	/**
+	 * Reads vertex attribute with given location into out array.
+	 */
+	private void fetch(int location, int vertex, float[] out) {
+		if (location < 0) {
+			out[0] = out[1] = out[2] = 0;
+			out[3] = 1;
+			return;
+		}
+		Attrib a = mAttribs[location];
+		// Disabled arrays give constant attribute value.
+		System.arraycopy(a.mValue, 0, out, 0, 4);
+		if (!a.mEnabled) {
+			return;
+		}
+		int typeSize = a.mType == GL_BYTE ? 1 : 4;
+		int stride = a.mStride != 0 ? a.mStride : a.mSize * typeSize;
+		if (a.mClient instanceof FloatBuffer) {
+			FloatBuffer fb = (FloatBuffer) a.mClient;
+			int base = a.mOffset + vertex * stride / 4;
+			for (int i = 0; i < a.mSize; ++i) {
+				out[i] = fb.get(base + i);
+			}
+			return;
+		}
+		ByteBuffer bb = (ByteBuffer) (a.mClient != null ? a.mClient
+				: mObjects.get(a.mBuffer));
+		int base = a.mOffset + vertex * stride;
+		for (int i = 0; i < a.mSize; ++i) {
+			out[i] = a.mType == GL_BYTE ? bb.get(base + i) : bb.getFloat(base
+					+ i * 4);
+		}
+	}
+
+	/**
+	 * Returns color buffer as ARGB values, rows ordered top to bottom.
+	 */
+	public IntBuffer getColorBuffer() {
+		return mColorBuffer;
+	}
+
+	/**
+	 * Returns color buffer height.
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns color buffer width.
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Grows transformed vertex arrays to given size.
+	 */
+	private void growVertices(int count) {
+		if (mVertX.length < count) {
+			mVertHidden = new boolean[count];
+			mVertVarying = new float[count * VARYINGS];
+			mVertX = new float[count];
+			mVertY = new float[count];
+		}
+	}
+
+	/**
+	 * Rasterizes line segment between vertices i0 and i1 as a quad of current
+	 * line width. Uses vertex slots at index tmp and tmp + 1.
+	 */
+	private void rasterLine(int i0, int i1, int tmp) {
+		float dx = mVertX[i1] - mVertX[i0];
+		float dy = mVertY[i1] - mVertY[i0];
+		float len = (float) Math.sqrt(dx * dx + dy * dy);
+		if (len == 0) {
+			return;
+		}
+		float nx = -dy / len * mLineWidth * .5f;
+		float ny = dx / len * mLineWidth * .5f;
+		float x0 = mVertX[i0], y0 = mVertY[i0];
+		float x1 = mVertX[i1], y1 = mVertY[i1];
+		mVertX[i0] = x0 + nx;
+		mVertY[i0] = y0 + ny;
+		mVertX[i1] = x1 + nx;
+		mVertY[i1] = y1 + ny;
+		mVertX[tmp] = x0 - nx;
+		mVertY[tmp] = y0 - ny;
+		mVertX[tmp + 1] = x1 - nx;
+		mVertY[tmp + 1] = y1 - ny;
+		mVertHidden[tmp] = mVertHidden[tmp + 1] = mVertHidden[i0];
+		System.arraycopy(mVertVarying, i0 * VARYINGS, mVertVarying, tmp
+				* VARYINGS, VARYINGS);
+		System.arraycopy(mVertVarying, i0 * VARYINGS, mVertVarying,
+				(tmp + 1) * VARYINGS, VARYINGS);
+		rasterTriangle(i0, i1, tmp);
+		rasterTriangle(tmp, i1, tmp + 1);
+		mVertX[i0] = x0;
+		mVertY[i0] = y0;
+		mVertX[i1] = x1;
+		mVertY[i1] = y1;
+	}
+
+	/**
+	 * Rasterizes point sprite of given size for vertex i.
+	 */
+	private void rasterPoint(int i, float size) {
+		if (mVertHidden[i]) {
+			return;
+		}
+		float left = mVertX[i] - size * .5f, top = mVertY[i] - size * .5f;
+		int x0 = Math.max(0, (int) Math.floor(left));
+		int x1 = Math.min(mTargetWidth - 1, (int) Math.ceil(left + size));
+		int y0 = Math.max(0, (int) Math.floor(top));
+		int y1 = Math.min(mTargetHeight - 1, (int) Math.ceil(top + size));
+		for (int y = y0; y <= y1; ++y) {
+			float sy = y + .5f;
+			if (sy < top || sy >= top + size)
+				continue;
+			for (int x = x0; x <= x1; ++x) {
+				float sx = x + .5f;
+				if (sx < left || sx >= left + size)
+					continue;
+				// Point coordinate mapped to [-1, 1].
+				float px = (sx - left) / size * 2 - 1;
+				float py = (sy - top) / size * 2 - 1;
+				System.arraycopy(mVertVarying, i * VARYINGS, mFragVarying, 0,
+						VARYINGS);
+				if (shade(px, py)) {
+					write(x, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rasterizes triangle between vertices i0, i1 and i2. Pixel centres
+	 * exactly on shared edges are filled once using top-left rule.
+	 */
+	private void rasterTriangle(int i0, int i1, int i2) {
+		if (mVertHidden[i0] || mVertHidden[i1] || mVertHidden[i2]) {
+			return;
+		}
+		float area = edge(mVertX[i0], mVertY[i0], mVertX[i1], mVertY[i1],
+				mVertX[i2], mVertY[i2]);
+		if (area == 0) {
+			return;
+		}
+		if (area < 0) {
+			int t = i1;
+			i1 = i2;
+			i2 = t;
+			area = -area;
+		}
+		final float x0 = mVertX[i0], y0 = mVertY[i0];
+		final float x1 = mVertX[i1], y1 = mVertY[i1];
+		final float x2 = mVertX[i2], y2 = mVertY[i2];
+		final boolean tl0 = topLeft(x1, y1, x2, y2);
+		final boolean tl1 = topLeft(x2, y2, x0, y0);
+		final boolean tl2 = topLeft(x0, y0, x1, y1);
+
+		int minX = Math.max(0, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+		int maxX = Math.min(mTargetWidth - 1,
+				(int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+		int minY = Math.max(0, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+		int maxY = Math.min(mTargetHeight - 1,
+				(int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+		for (int y = minY; y <= maxY; ++y) {
+			float sy = y + .5f;
+			for (int x = minX; x <= maxX; ++x) {
+				float sx = x + .5f;
+				float w0 = edge(x1, y1, x2, y2, sx, sy);
+				float w1 = edge(x2, y2, x0, y0, sx, sy);
+				float w2 = edge(x0, y0, x1, y1, sx, sy);
+				if (w0 < 0 || w1 < 0 || w2 < 0 || (w0 == 0 && !tl0)
+						|| (w1 == 0 && !tl1) || (w2 == 0 && !tl2))
+					continue;
+				w0 /= area;
+				w1 /= area;
+				w2 /= area;
+				for (int i = 0; i < VARYINGS; ++i) {
+					mFragVarying[i] = w0 * mVertVarying[i0 * VARYINGS + i]
+							+ w1 * mVertVarying[i1 * VARYINGS + i] + w2
+							* mVertVarying[i2 * VARYINGS + i];
+				}
+				if (shade(0, 0)) {
+					write(x, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Samples texture at given texture coordinates into out array, using
+	 * bilinear filtering and clamping to edges. Texture rows are stored top
+	 * to bottom, t = 1 being the first row.
+	 */
+	private static void sample(Texture tex, float s, float t, float[] out) {
+		out[0] = out[1] = out[2] = 0;
+		out[3] = 1f;
+		if (tex == null || tex.mPixels == null) {
+			return;
+		}
+		float fx = s * tex.mWidth - .5f;
+		float fy = (1f - t) * tex.mHeight - .5f;
+		if (!tex.mLinear) {
+			fx = (float) Math.floor(fx + .5f);
+			fy = (float) Math.floor(fy + .5f);
+		}
+		int x0 = (int) Math.floor(fx), y0 = (int) Math.floor(fy);
+		float ax = fx - x0, ay = fy - y0;
+		for (int i = 0; i < 4; ++i) {
+			int x = Math.max(0, Math.min(tex.mWidth - 1, x0 + (i & 1)));
+			int y = Math.max(0, Math.min(tex.mHeight - 1, y0 + (i >> 1)));
+			float w = ((i & 1) != 0 ? ax : 1 - ax)
+					* ((i >> 1) != 0 ? ay : 1 - ay);
+			int c = tex.mPixels[y * tex.mWidth + x];
+			out[0] += ((c >> 16) & 0xFF) / 255f * w;
+			out[1] += ((c >> 8) & 0xFF) / 255f * w;
+			out[2] += (c & 0xFF) / 255f * w;
+		}
+	}
+
+	/**
+	 * Runs scene_fs, copy_fs or spark_fs for interpolated varyings in
+	 * mFragVarying, point sprite coordinate mapped to [-1, 1] is given as
+	 * (px, py). Result is stored in mFragColor.
+	 * 
+	 * @return False if fragment was discarded.
+	 */
+	private boolean shade(float px, float py) {
+		final float[] v = mFragVarying;
+		final float[] c = mFragColor;
+		if (mProgram.mCopy) {
+			sample(mBoundTexture, v[0], v[1], c);
+			return true;
+		}
+		if (mProgram.mSpark) {
+			System.arraycopy(v, 0, c, 0, 4);
+			return true;
+		}
+		final float type = v[3];
+		c[0] = v[0];
+		c[1] = v[1];
+		c[2] = v[2];
+		c[3] = 1f;
+		if (type > 1.5f && type < 2.5f) {
+			// Lines are drawn with solid color.
+		} else if (type > 4.5f) {
+			// Glyph cell from local position, see scene_fs.
+			int cx = (int) Math.floor((v[4] * .5f + .5f) * 3);
+			int cy = (int) Math.floor((.5f - v[5] * .5f) * 5);
+			cx = Math.max(0, Math.min(cx, 2));
+			cy = Math.max(0, Math.min(cy, 4));
+			int bits = Math.round(cy < 2 ? v[6] : (cy < 4 ? v[7] : v[8]));
+			int shift = 2 - cx + (cy % 2 == 0 ? 3 : 0);
+			int bit = (bits >> shift) & 1;
+			if (mProgram.mSmooth) {
+				c[3] = bit;
+			} else if (bit == 0) {
+				return false;
+			}
+		} else if (type > .5f && type < 1.5f) {
+			if (v[4] * .5f + .5f >= v[6]) {
+				c[0] = v[7];
+				c[1] = v[8];
+				c[2] = v[9];
+			}
+		} else {
+			float lx = type > 3.5f ? px : v[4];
+			float ly = type > 3.5f ? py : v[5];
+			float d = (float) Math.sqrt(lx * lx + ly * ly);
+			if (mProgram.mSmooth) {
+				c[3] = smoothstep(v[6] - v[8], v[6], d)
+						* (1f - smoothstep(v[7] - v[8], v[7], d));
+			} else if (d < v[6] || d > v[7]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * GLSL smoothstep.
+	 */
+	private static float smoothstep(float edge0, float edge1, float x) {
+		float t = Math.max(0f, Math.min(1f, (x - edge0) / (edge1 - edge0)));
+		return t * t * (3 - 2 * t);
+	}
+
+	/**
+	 * Returns true if edge from a to b is a top or left edge.
+	 */
+	private static boolean topLeft(float ax, float ay, float bx, float by) {
+		return by > ay || (by == ay && bx < ax);
+	}
+
+	/**
+	 * Runs scene_vs, copy_vs or spark_vs for given vertex, result is stored
+	 * into transformed vertex arrays at index i.
+	 */
+	private void transform(int vertex, int i) {
+		final Program p = mProgram;
+		final float[] pos = mAttrib0;
+		final float[] color = mAttrib1;
+		final float[] params = mAttrib2;
+		fetch(p.mAttribPosition, vertex, pos);
+		if (p.mCopy) {
+			// Full view quad, texture coordinates from position.
+			mVertVarying[i * VARYINGS] = pos[0] * .5f + .5f;
+			mVertVarying[i * VARYINGS + 1] = pos[1] * .5f + .5f;
+			mVertHidden[i] = false;
+			mVertX[i] = mViewportX + (pos[0] + 1) * .5f * mViewportWidth;
+			mVertY[i] = mTargetHeight - mViewportY - (pos[1] + 1) * .5f
+					* mViewportHeight;
+			return;
+		}
+		fetch(p.mAttribParams, vertex, params);
+
+		float x = pos[0], y = pos[1], z = 0;
+		final float[] v = mVertVarying;
+		final int off = i * VARYINGS;
+		if (p.mSpark) {
+			// Drag integrated position and color fading out, see spark_vs.
+			float drag = p.uniform("uDrag")[0];
+			float t = p.uniform("uTime")[0] - params[0];
+			float life = t / p.uniform("uLiveTime")[0];
+			float move = (1f - (float) Math.exp(-drag * t)) / drag;
+			x = pos[0] + pos[2] * move;
+			y = pos[1] + pos[3] * move;
+			z = life < 0 || life >= 1 ? 2f : 0f;
+			float[] hot = p.uniform("uColorHot"), cold = p.uniform("uColor");
+			for (int j = 0; j < 3; ++j) {
+				v[off + j] = hot[j] + (cold[j] - hot[j]) * life;
+			}
+			v[off + 3] = (1f - life) * params[1];
+		} else {
+			fetch(p.mAttribColor, vertex, color);
+			v[off + 6] = params[0];
+			v[off + 7] = params[1];
+			v[off + 8] = params[2];
+			v[off + 9] = params[3];
+			if (color[3] > 2.5f && color[3] < 4.5f) {
+				float t = (p.uniform("uTime")[0] - params[2])
+						/ p.uniform("uLiveTime")[0];
+				float quad = color[3] < 3.5f ? p.uniform("uBulletRadius")[0]
+						: 0;
+				x = pos[0] + (params[0] - pos[0]) * t + pos[2] * quad;
+				y = pos[1] + (params[1] - pos[1]) * t + pos[3] * quad;
+				z = 2f - 2f * params[3];
+				v[off + 6] = 0;
+				v[off + 7] = 1;
+				v[off + 8] = p.uniform("uBulletSmooth")[0];
+				v[off + 9] = 0;
+			}
+			System.arraycopy(color, 0, v, off, 4);
+			v[off + 4] = pos[2];
+			v[off + 5] = pos[3];
+		}
+		mVertHidden[i] = z > 1f;
+
+		// Row vector times matrix uploaded in column major order.
+		float[] m = p.uniform("uViewM");
+		float nx = x * m[0] + y * m[1] + m[2];
+		float ny = x * m[3] + y * m[4] + m[5];
+		mVertX[i] = mViewportX + (nx + 1) * .5f * mViewportWidth;
+		mVertY[i] = mTargetHeight - mViewportY - (ny + 1) * .5f
+				* mViewportHeight;
+	}
+
+	/**
+	 * Writes mFragColor into color buffer at given position, blending with
+	 * existing color if blending is enabled.
+	 */
+	private void write(int x, int y) {
+		final float[] c = mFragColor;
+		int index = y * mTargetWidth + x;
+		float r = c[0], g = c[1], b = c[2];
+		if (mBlend) {
+			int dst = mTarget[index];
+			float a = Math.max(0f, Math.min(1f, c[3]));
+			r = r * a + ((dst >> 16) & 0xFF) / 255f * (1 - a);
+			g = g * a + ((dst >> 8) & 0xFF) / 255f * (1 - a);
+			b = b * a + (dst & 0xFF) / 255f * (1 - a);
+		}
+		mTarget[index] = 0xFF000000 | toByte(r) << 16 | toByte(g) << 8
+				| toByte(b);
+	}
+
+	/**
+	 * Converts color component in range [0, 1] to [0, 255].
+	 */
+	private static int toByte(float c) {
+		return (int) (Math.max(0f, Math.min(1f, c)) * 255 + .5f);
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		// Only texture unit 0 is used.
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		Program p = (Program) mObjects.get(program);
+		Shader s = (Shader) mObjects.get(shader);
+		if (s.mType == GL_VERTEX_SHADER) {
+			p.mShaderVertex = s;
+		} else {
+			p.mShaderFragment = s;
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		mBoundBuffer = buffer;
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		mFramebuffer = framebuffer;
+		Object texture = framebuffer == 0 ? null : mObjects.get(framebuffer);
+		if (texture instanceof Texture) {
+			Texture tex = (Texture) texture;
+			mTarget = tex.mPixels;
+			mTargetWidth = tex.mWidth;
+			mTargetHeight = tex.mHeight;
+		} else {
+			mTarget = mPixels;
+			mTargetWidth = mWidth;
+			mTargetHeight = mHeight;
+		}
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		mBoundTexture = (Texture) mObjects.get(texture);
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		// Only GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA is used.
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		ByteBuffer buf = ByteBuffer.allocate(size).order(
+				ByteOrder.nativeOrder());
+		mObjects.put(mBoundBuffer, buf);
+		if (data != null) {
+			glBufferSubData(target, 0, size, data);
+		}
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		ByteBuffer buf = (ByteBuffer) mObjects.get(mBoundBuffer);
+		if (data instanceof FloatBuffer) {
+			FloatBuffer src = ((FloatBuffer) data).duplicate();
+			for (int i = 0; i < size / 4; ++i) {
+				buf.putFloat(offset + i * 4, src.get());
+			}
+		} else {
+			ByteBuffer src = ((ByteBuffer) data).duplicate();
+			for (int i = 0; i < size; ++i) {
+				buf.put(offset + i, src.get());
+			}
+		}
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target) {
+		return mTarget != mPixels ? GL_FRAMEBUFFER_COMPLETE : 0;
+	}
+
+	@Override
+	public void glClear(int mask) {
+		if ((mask & GL_COLOR_BUFFER_BIT) != 0) {
+			int color = 0xFF000000 | toByte(mClearColor[0]) << 16
+					| toByte(mClearColor[1]) << 8 | toByte(mClearColor[2]);
+			Arrays.fill(mTarget, color);
+		}
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		mClearColor[0] = red;
+		mClearColor[1] = green;
+		mClearColor[2] = blue;
+		mClearColor[3] = alpha;
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+	}
+
+	@Override
+	public int glCreateProgram() {
+		mObjects.put(mNextName, new Program());
+		return mNextName++;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		Shader s = new Shader();
+		s.mType = type;
+		mObjects.put(mNextName, s);
+		return mNextName++;
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			mObjects.remove(framebuffers[offset + i]);
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		mObjects.remove(program);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		mObjects.remove(shader);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		for (int i = 0; i < n; ++i) {
+			mObjects.remove(textures[offset + i]);
+		}
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		if (cap == GL_BLEND) {
+			mBlend = false;
+		}
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		mAttribs[index].mEnabled = false;
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		if (mProgram == null || count == 0) {
+			return;
+		}
+		// Two extra slots for line quads.
+		growVertices(count + 2);
+		for (int i = 0; i < count; ++i) {
+			transform(first + i, i);
+		}
+		switch (mode) {
+		case GL_TRIANGLES:
+			for (int i = 0; i + 2 < count; i += 3) {
+				rasterTriangle(i, i + 1, i + 2);
+			}
+			break;
+		case GL_TRIANGLE_STRIP:
+			for (int i = 0; i + 2 < count; ++i) {
+				rasterTriangle(i, i + 1, i + 2);
+			}
+			break;
+		case GL_LINE_LOOP:
+			for (int i = 0; i < count; ++i) {
+				rasterLine(i, (i + 1) % count, count);
+			}
+			break;
+		case GL_POINTS:
+			float size = mProgram.uniform("uPointSize")[0];
+			for (int i = 0; i < count; ++i) {
+				rasterPoint(i, size);
+			}
+			break;
+		}
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		if (cap == GL_BLEND) {
+			mBlend = true;
+		}
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		mAttribs[index].mEnabled = true;
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		// Framebuffer object is represented by texture attached to it.
+		Texture tex = (Texture) mObjects.get(texture);
+		mObjects.put(mFramebuffer, tex);
+		glBindFramebuffer(target, mFramebuffer);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			buffers[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		for (int i = 0; i < n; ++i) {
+			framebuffers[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		for (int i = 0; i < n; ++i) {
+			mObjects.put(mNextName, new Texture());
+			textures[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		Integer location = ((Program) mObjects.get(program)).mAttribLocations
+				.get(name);
+		return location == null ? -1 : location;
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, boolean[] params, int offset) {
+		params[offset] = pname == GL_SHADER_COMPILER;
+	}
+
+	@Override
+	public void glGetFloatv(int pname, float[] params, int offset) {
+		if (pname == GL_ALIASED_POINT_SIZE_RANGE) {
+			params[offset] = 1f;
+			params[offset + 1] = 1024f;
+		}
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		return "";
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+		params[offset] = GL_TRUE;
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		return "";
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		params[offset] = GL_TRUE;
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		Program p = (Program) mObjects.get(program);
+		Integer location = p.mUniformLocations.get(name);
+		if (location == null) {
+			location = p.mUniformLocations.size();
+			p.mUniformLocations.put(name, location);
+		}
+		return location;
+	}
+
+	@Override
+	public void glLineWidth(float width) {
+		mLineWidth = width;
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		Program p = (Program) mObjects.get(program);
+		p.mCopy = p.mShaderFragment.mSource.contains("sampler2D");
+		p.mSmooth = p.mShaderFragment.mSource.contains("#define SMOOTH");
+		p.mSpark = p.mShaderVertex.mSource.contains("uDrag");
+		// Attribute locations in order of appearance.
+		final String[] ATTRIBS = { "aPosition", "aColor", "aParams" };
+		for (String name : ATTRIBS) {
+			p.mAttribLocations.put(name, p.mAttribLocations.size());
+		}
+		p.mAttribPosition = glGetAttribLocation(program, "aPosition");
+		p.mAttribColor = glGetAttribLocation(program, "aColor");
+		p.mAttribParams = glGetAttribLocation(program, "aParams");
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+		((Shader) mObjects.get(shader)).mSource = source;
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		// Only uninitialized render target textures are used.
+		mBoundTexture.mPixels = new int[width * height];
+		mBoundTexture.mWidth = width;
+		mBoundTexture.mHeight = height;
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		if (pname == GL_TEXTURE_MAG_FILTER) {
+			mBoundTexture.mLinear = param == GL_LINEAR;
+		}
+	}
+
+	@Override
+	public void glUniform1f(int location, float x) {
+		if (location < 0) {
+			return;
+		}
+		mProgram.value(location, 1)[0] = x;
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		// Samplers always read texture unit 0.
+	}
+
+	@Override
+	public void glUniform2f(int location, float x, float y) {
+		if (location < 0) {
+			return;
+		}
+		float[] v = mProgram.value(location, 2);
+		v[0] = x;
+		v[1] = y;
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		if (location < 0) {
+			return;
+		}
+		System.arraycopy(v, offset, mProgram.value(location, 3), 0, 3);
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		if (location < 0) {
+			return;
+		}
+		System.arraycopy(value, offset, mProgram.value(location, 9), 0, 9);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		mProgram = (Program) mObjects.get(program);
+	}
+
+	@Override
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w) {
+		float[] v = mAttribs[indx].mValue;
+		v[0] = x;
+		v[1] = y;
+		v[2] = z;
+		v[3] = w;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		Attrib a = mAttribs[index];
+		a.mSize = size;
+		a.mType = type;
+		a.mStride = stride;
+		a.mClient = ptr;
+		a.mOffset = ptr.position();
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		Attrib a = mAttribs[index];
+		a.mSize = size;
+		a.mType = type;
+		a.mStride = stride;
+		a.mClient = null;
+		a.mBuffer = mBoundBuffer;
+		a.mOffset = offset;
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		mViewportX = x;
+		mViewportY = y;
+		mViewportWidth = width;
+		mViewportHeight = height;
+	}
+
+	/**
+	 * Vertex attribute array state.
+	 */
+	private static final class Attrib {
+		public int mBuffer;
+		public Buffer mClient;
+		public boolean mEnabled;
+		public int mOffset;
+		public int mSize;
+		public int mStride;
+		public int mType;
+		// Constant value used while array is disabled.
+		public final float[] mValue = { 0, 0, 0, 1 };
+	}
+
+	/**
+	 * Linked program, holds uniform values and recognized shader stages.
+	 */
+	private static final class Program {
+		public final HashMap<String, Integer> mAttribLocations = new HashMap<String, Integer>();
+		public int mAttribColor, mAttribParams, mAttribPosition;
+		// True for copy program sampling bound texture.
+		public boolean mCopy;
+		public Shader mShaderFragment;
+		public Shader mShaderVertex;
+		// True if SMOOTH is defined for fragment shader.
+		public boolean mSmooth;
+		// True for spark program.
+		public boolean mSpark;
+		public final HashMap<String, Integer> mUniformLocations = new HashMap<String, Integer>();
+		public float[][] mUniformValues = new float[16][];
+
+		/**
+		 * Returns value of uniform with given name, zeros if not set.
+		 */
+		public float[] uniform(String name) {
+			Integer location = mUniformLocations.get(name);
+			if (location == null || location >= mUniformValues.length
+					|| mUniformValues[location] == null) {
+				return ZERO;
+			}
+			return mUniformValues[location];
+		}
+
+		/**
+		 * Returns value array for given uniform location.
+		 */
+		public float[] value(int location, int size) {
+			if (location >= mUniformValues.length) {
+				float[][] values = new float[location * 2][];
+				System.arraycopy(mUniformValues, 0, values, 0,
+						mUniformValues.length);
+				mUniformValues = values;
+			}
+			if (mUniformValues[location] == null) {
+				mUniformValues[location] = new float[size];
+			}
+			return mUniformValues[location];
+		}
+	}
+
+	/**
+	 * Shader object.
+	 */
+	private static final class Shader {
+		public String mSource;
+		public int mType;
+	}
+
+	/**
+	 * Texture object, ARGB pixels with rows ordered top to bottom.
+	 */
+	private static final class Texture {
+		public int mHeight;
+		public boolean mLinear;
+		public int[] mPixels;
+		public int mWidth;
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Runs scene on plain JVM using recording BotzGL implementation and prints
+ * per frame OpenGL statistics. Usage;
+ * 
+ * BotzHeadless [frames] [width] [height] [ships] [draw-budget]
+ * 
+ * Exits with non-zero status if any frame issues more draw calls than
+ * given budget, zero budget disables the check. Must be run from project
+ * root for shader sources to be found.
+ */
+public final class BotzHeadless implements BotzScene.SourceLoader {
+
+	// Simulated frame interval in milliseconds.
+	private static final long FRAME_TIME = 16;
+
+	public static void main(String[] args) throws Exception {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 720;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 1280;
+		int ships = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+		int drawBudget = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+		BotzGLRecorder gl = new BotzGLRecorder();
+		BotzScene scene = new BotzScene(gl, new BotzLogConsole());
+		scene.setEntityCounts(ships, ships * 4 / 3);
+		scene.onSurfaceCreated();
+		scene.loadShaders(new BotzHeadless());
+		scene.onSurfaceChanged(width, height);
+
+		int maxDrawCalls = 0;
+		long totalBytes = 0;
+		System.out.println("frame\tdraws\tprograms\tstates\tuniforms\tbytes");
+		for (int i = 0; i < frames; ++i) {
+			gl.beginFrame();
+			scene.onDrawFrame(i * FRAME_TIME);
+			System.out.println(i + "\t" + gl.getDrawCalls() + "\t"
+					+ gl.getProgramChanges() + "\t" + gl.getStateChanges()
+					+ "\t" + gl.getUniformUploads() + "\t"
+					+ gl.getBytesSubmitted());
+			maxDrawCalls = Math.max(maxDrawCalls, gl.getDrawCalls());
+			totalBytes += gl.getBytesSubmitted();
+		}
+		System.out.println("max draw calls " + maxDrawCalls
+				+ ", average bytes " + totalBytes / Math.max(1, frames));
+		if (drawBudget > 0 && maxDrawCalls > drawBudget) {
+			System.out.println("draw call budget " + drawBudget + " exceeded");
+			System.exit(1);
+		}
+	}
+
+	@Override
+	public String loadSource(String name) throws Exception {
+		InputStream is = new FileInputStream(new File("res/raw", name + ".txt"));
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int len;
+			while ((len = is.read(buf)) != -1) {
+				baos.write(buf, 0, len);
+			}
+			return baos.toString();
+		} finally {
+			is.close();
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+/**
+ * BotzLog implementation printing messages on standard error stream.
+ */
+public final class BotzLogConsole implements BotzLog {
+
+	@Override
+	public void d(String tag, String msg) {
+		System.err.println(tag + ": " + msg);
+	}
+
+	@Override
+	public void e(String tag, String msg, Throwable tr) {
+		System.err.println(tag + ": " + msg
+				+ (tr != null ? " (" + tr.getMessage() + ")" : ""));
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+/**
+ * Float approximations of square root, inverse square root and atan2,
+ * avoiding conversions to and from double. Error bounds are measured over
+ * positive normal floats and atan2 over all directions by BotzMathBench.
+ * Math.sqrt is a runtime intrinsic and faster than sqrt and invSqrt, and
+ * scene has no atan2 calls, so these are kept here for measurements only
+ * and scene uses java.lang.Math.
+ */
+public final class BotzMath {
+
+	// Polynomial coefficients for atan on [0, 1], Abramowitz and Stegun
+	// 4.4.49.
+	private static final float ATAN_1 = .9998660f;
+	private static final float ATAN_3 = -.3302995f;
+	private static final float ATAN_5 = .1801410f;
+	private static final float ATAN_7 = -.0851330f;
+	private static final float ATAN_9 = .0208351f;
+	private static final float PI = (float) Math.PI;
+	private static final float PI_2 = (float) (Math.PI / 2);
+
+	private BotzMath() {
+	}
+
+	/**
+	 * Approximates atan2(y, x). Absolute error is below 1.2e-5 radians.
+	 * Returns 0 for zero vector.
+	 */
+	public static float atan2(float y, float x) {
+		float ax = Math.abs(x), ay = Math.abs(y);
+		if (ax == 0 && ay == 0) {
+			return 0;
+		}
+		// Evaluate atan for ratio within [0, 1] and map result to octant.
+		boolean swap = ay > ax;
+		float z = swap ? ax / ay : ay / ax;
+		float z2 = z * z;
+		float a = z
+				* (ATAN_1 + z2
+						* (ATAN_3 + z2 * (ATAN_5 + z2 * (ATAN_7 + z2 * ATAN_9))));
+		if (swap) {
+			a = PI_2 - a;
+		}
+		if (x < 0) {
+			a = PI - a;
+		}
+		return y < 0 ? -a : a;
+	}
+
+	/**
+	 * Approximates 1 / sqrt(x) using bit level initial guess and one Newton
+	 * step. Relative error is below 1.8e-3. Zero gives a large finite value
+	 * instead of infinity, negative values give undefined results.
+	 */
+	public static float invSqrt(float x) {
+		int bits = 0x5F375A86 - (Float.floatToRawIntBits(x) >> 1);
+		float y = Float.intBitsToFloat(bits);
+		return y * (1.5f - .5f * x * y * y);
+	}
+
+	/**
+	 * Normalizes vector (x, y) into given array and returns its length.
+	 * Relative error of both is below 1.8e-3. Zero vector gives zero length
+	 * and zero direction.
+	 */
+	public static float normalize(float x, float y, float[] out) {
+		float len2 = x * x + y * y;
+		float inv = invSqrt(len2);
+		out[0] = x * inv;
+		out[1] = y * inv;
+		return len2 * inv;
+	}
+
+	/**
+	 * Approximates sqrt(x). Relative error is below 1.8e-3, zero gives zero.
+	 */
+	public static float sqrt(float x) {
+		return x * invSqrt(x);
+	}
+
+}
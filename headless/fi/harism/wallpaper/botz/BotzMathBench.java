@@ -0,0 +1,158 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.util.Random;
+
+/**
+ * Checks BotzMath error bounds and compares its speed against
+ * java.lang.Math. Exits with error if any documented bound is exceeded.
+ * Usage;
+ * 
+ * BotzMathBench [iterations]
+ */
+public final class BotzMathBench {
+
+	// Documented error bounds.
+	private static final double ATAN2_MAX_ERROR = 1.2e-5;
+	private static final double SQRT_MAX_ERROR = 1.8e-3;
+	// Number of inputs benchmarked per pass.
+	private static final int SIZE = 4096;
+
+	private static float sSink;
+
+	/**
+	 * Returns largest absolute atan2 error over directions on unit circle
+	 * and random vectors.
+	 */
+	private static double checkAtan2(Random random) {
+		double max = 0;
+		for (int i = 0; i < 1000000; ++i) {
+			double a = i * 2 * Math.PI / 1000000;
+			float s = (float) (Math.exp(random.nextDouble() * 20 - 10));
+			float x = (float) Math.cos(a) * s, y = (float) Math.sin(a) * s;
+			double err = Math.abs(BotzMath.atan2(y, x) - Math.atan2(y, x));
+			max = Math.max(max, Math.min(err, 2 * Math.PI - err));
+		}
+		return max;
+	}
+
+	/**
+	 * Returns largest relative error of invSqrt, sqrt and normalize over
+	 * every 7th positive normal float.
+	 */
+	private static double checkSqrt() {
+		double max = 0;
+		float[] dir = new float[2];
+		for (int bits = 0x00800000; bits < 0x7F800000; bits += 7) {
+			float x = Float.intBitsToFloat(bits);
+			double exact = Math.sqrt(x);
+			max = Math.max(max, Math.abs(BotzMath.invSqrt(x) * exact - 1));
+			max = Math.max(max, Math.abs(BotzMath.sqrt(x) / exact - 1));
+		}
+		for (int i = 0; i < 100000; ++i) {
+			float x = (float) Math.cos(i), y = (float) Math.sin(i);
+			float len = BotzMath.normalize(x * 3, y * 3, dir);
+			double exact = Math.sqrt(9.0 * (x * x + y * y));
+			max = Math.max(max, Math.abs(len / exact - 1));
+			max = Math.max(max, Math.abs(Math.hypot(dir[0], dir[1]) - 1));
+		}
+		return max;
+	}
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		Random random = new Random(1);
+
+		double sqrtError = checkSqrt();
+		double atan2Error = checkAtan2(random);
+		System.out.printf("sqrt, invSqrt, normalize max relative error %.3g"
+				+ " (bound %.3g)%n", sqrtError, SQRT_MAX_ERROR);
+		System.out.printf("atan2 max absolute error %.3g (bound %.3g)%n",
+				atan2Error, ATAN2_MAX_ERROR);
+
+		float[] xs = new float[SIZE], ys = new float[SIZE];
+		for (int i = 0; i < SIZE; ++i) {
+			xs[i] = random.nextFloat() * 2 - 1;
+			ys[i] = random.nextFloat() * 2 - 1;
+		}
+		// Two rounds, first one warms up JIT.
+		for (int round = 0; round < 2; ++round) {
+			boolean print = round == 1;
+			for (int mode = 0; mode < 6; ++mode) {
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; ++i) {
+					run(mode, xs, ys);
+				}
+				double ns = (System.nanoTime() - start)
+						/ ((double) iterations * SIZE);
+				if (print) {
+					System.out.printf("%-22s %6.2f ns/op%n", NAMES[mode], ns);
+				}
+			}
+		}
+
+		if (sqrtError > SQRT_MAX_ERROR || atan2Error > ATAN2_MAX_ERROR) {
+			System.exit(1);
+		}
+	}
+
+	private static final String[] NAMES = { "Math.sqrt", "BotzMath.sqrt",
+			"1 / Math.sqrt", "BotzMath.invSqrt", "Math.atan2",
+			"BotzMath.atan2" };
+
+	/**
+	 * Runs one pass of given benchmark over input arrays.
+	 */
+	private static void run(int mode, float[] xs, float[] ys) {
+		float sum = 0;
+		switch (mode) {
+		case 0:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+			}
+			break;
+		case 1:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += BotzMath.sqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+			}
+			break;
+		case 2:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += 1f / (float) Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+			}
+			break;
+		case 3:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += BotzMath.invSqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+			}
+			break;
+		case 4:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += (float) Math.atan2(ys[i], xs[i]);
+			}
+			break;
+		case 5:
+			for (int i = 0; i < SIZE; ++i) {
+				sum += BotzMath.atan2(ys[i], xs[i]);
+			}
+			break;
+		}
+		sSink += sum;
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Compares BotzQuadTree nearest, radius and ray queries against brute force
+ * scans over random particles and checks both return same results. Exits
+ * with error on mismatch. Usage;
+ * 
+ * BotzQueryBench [queries]
+ */
+public final class BotzQueryBench {
+
+	// Number of nearest particles searched for in second k-nearest pass.
+	private static final int K = 8;
+	// Particle counts benchmarked.
+	private static final int[] SIZES = { 100, 1000, 10000, 50000 };
+
+	private static final String[] NAMES = { "nearest k=1", "nearest k=" + K,
+			"radius", "ray" };
+
+	private static int sSink;
+
+	/**
+	 * Runs brute force version of given query and returns result checksum.
+	 */
+	private static int brute(int mode, float[] posX, float[] posY,
+			float[] radius, float x, float y, float dirX, float dirY,
+			float dist, int[] result, float[] dist2) {
+		final int size = posX.length;
+		switch (mode) {
+		case 0:
+		case 1: {
+			int k = mode == 0 ? 1 : K, count = 0;
+			for (int i = 0; i < size; ++i) {
+				float dx = posX[i] - x, dy = posY[i] - y;
+				float d2 = dx * dx + dy * dy;
+				if (count == k && d2 >= dist2[k - 1])
+					continue;
+				int j = count < k ? count++ : k - 1;
+				for (; j > 0 && dist2[j - 1] > d2; --j) {
+					result[j] = result[j - 1];
+					dist2[j] = dist2[j - 1];
+				}
+				result[j] = i;
+				dist2[j] = d2;
+			}
+			return checksum(result, count);
+		}
+		case 2: {
+			int count = 0;
+			for (int i = 0; i < size; ++i) {
+				float dx = posX[i] - x, dy = posY[i] - y;
+				if (dx * dx + dy * dy < dist * dist) {
+					result[count++] = i;
+				}
+			}
+			return checksumUnordered(result, count);
+		}
+		default: {
+			int index = -1;
+			float best = dist;
+			for (int i = 0; i < size; ++i) {
+				float ox = posX[i] - x, oy = posY[i] - y;
+				float r2 = radius[i] * radius[i];
+				float d2 = ox * ox + oy * oy;
+				float t = ox * dirX + oy * dirY;
+				float t0;
+				if (d2 < r2) {
+					t0 = 0;
+				} else if (t < 0 || d2 - t * t >= r2) {
+					continue;
+				} else {
+					t0 = t - (float) Math.sqrt(r2 - (d2 - t * t));
+				}
+				if (t0 < best || (t0 == best && index == -1)) {
+					best = t0;
+					index = i;
+				}
+			}
+			return index;
+		}
+		}
+	}
+
+	/**
+	 * Returns order dependent checksum over given indices.
+	 */
+	private static int checksum(int[] indices, int count) {
+		int sum = count;
+		for (int i = 0; i < count; ++i) {
+			sum = sum * 31 + indices[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns order independent checksum over given indices.
+	 */
+	private static int checksumUnordered(int[] indices, int count) {
+		int sum = count;
+		for (int i = 0; i < count; ++i) {
+			sum += indices[i] * 0x9E3779B1;
+		}
+		return sum;
+	}
+
+	public static void main(String[] args) {
+		int queries = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		Random random = new Random(1);
+		boolean failed = false;
+
+		for (int size : SIZES) {
+			// Particles are spread so that density stays close to scene.
+			float extent = (float) Math.sqrt(size) * .1f;
+			Vector<BotzParticle> particles = new Vector<BotzParticle>();
+			float[] posX = new float[size], posY = new float[size];
+			float[] radius = new float[size];
+			for (int i = 0; i < size; ++i) {
+				BotzParticle p = new BotzParticle();
+				p.mEnabled = true;
+				p.mPosition[0] = posX[i] = (random.nextFloat() * 2 - 1)
+						* extent;
+				p.mPosition[1] = posY[i] = (random.nextFloat() * 2 - 1)
+						* extent;
+				p.mRadius = radius[i] = .05f;
+				particles.add(p);
+			}
+			BotzQuadTree tree = new BotzQuadTree(particles.size());
+			tree.build(particles);
+
+			float[] qx = new float[queries], qy = new float[queries];
+			float[] qdx = new float[queries], qdy = new float[queries];
+			for (int i = 0; i < queries; ++i) {
+				qx[i] = (random.nextFloat() * 2 - 1) * extent;
+				qy[i] = (random.nextFloat() * 2 - 1) * extent;
+				double a = random.nextDouble() * 2 * Math.PI;
+				qdx[i] = (float) Math.cos(a);
+				qdy[i] = (float) Math.sin(a);
+			}
+			final float dist = .3f;
+			int[] result = new int[size];
+			float[] dist2 = new float[K];
+
+			// Results are checked first, then both are timed in two rounds,
+			// first one warming up JIT.
+			for (int mode = 0; mode < 4; ++mode) {
+				for (int i = 0; i < queries; ++i) {
+					int a = tree(tree, mode, qx[i], qy[i], qdx[i], qdy[i],
+							dist, result, dist2);
+					int b = brute(mode, posX, posY, radius, qx[i], qy[i],
+							qdx[i], qdy[i], dist, result, dist2);
+					if (a != b) {
+						System.out.printf("%d particles, %s mismatch at "
+								+ "query %d%n", size, NAMES[mode], i);
+						failed = true;
+						break;
+					}
+				}
+			}
+			for (int round = 0; round < 2; ++round) {
+				for (int mode = 0; mode < 4; ++mode) {
+					long start = System.nanoTime();
+					for (int i = 0; i < queries; ++i) {
+						sSink += tree(tree, mode, qx[i], qy[i], qdx[i],
+								qdy[i], dist, result, dist2);
+					}
+					long tTree = System.nanoTime() - start;
+					start = System.nanoTime();
+					for (int i = 0; i < queries; ++i) {
+						sSink += brute(mode, posX, posY, radius, qx[i],
+								qy[i], qdx[i], qdy[i], dist, result, dist2);
+					}
+					long tBrute = System.nanoTime() - start;
+					if (round == 1) {
+						System.out.printf("%6d particles %-12s tree %9.0f "
+								+ "ns/query, brute force %9.0f ns/query%n",
+								size, NAMES[mode], tTree / (double) queries,
+								tBrute / (double) queries);
+					}
+				}
+			}
+		}
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs given BotzQuadTree query and returns result checksum.
+	 */
+	private static int tree(BotzQuadTree tree, int mode, float x, float y,
+			float dirX, float dirY, float dist, int[] result, float[] dist2) {
+		switch (mode) {
+		case 0:
+		case 1:
+			return checksum(result,
+					tree.queryNearest(x, y, mode == 0 ? 1 : K, result, dist2));
+		case 2:
+			return checksumUnordered(result,
+					tree.queryRadius(x, y, dist, result));
+		default:
+			return tree.queryRay(x, y, dirX, dirY, dist, null);
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders scene with software rasterizer. Used for producing and checking
+ * golden images and for measuring full frame throughput without GPU. Usage;
+ * 
+ * BotzRaster render [png] [frame] [width] [height] [scale]
+ * 
+ * BotzRaster compare [png] [frame] [width] [height] [scale]
+ * 
+ * BotzRaster bench [frames] [width] [height] [ships] [scale]
+ * 
+ * Scale is resolution scale scene is rendered at. Scene is seeded and
+ * advanced with fixed frame times so output depends on arguments only.
+ * Golden images under headless/golden are frame 120 and frame 480, the
+ * latter with explosion sparks. Must be run from project root for shader
+ * sources to be found.
+ */
+public final class BotzRaster {
+
+	// Simulated frame interval in milliseconds.
+	private static final long FRAME_TIME = 16;
+	// Maximum per channel difference treated as equal when comparing.
+	private static final int COMPARE_TOLERANCE = 8;
+	// Fraction of differing pixels allowed when comparing.
+	private static final float COMPARE_MAX_DIFF = .001f;
+	private static final long SEED = 1;
+
+	/**
+	 * Compares image against color buffer and returns number of differing
+	 * pixels.
+	 */
+	private static int compare(BufferedImage image, BotzGLSoftware gl) {
+		if (image.getWidth() != gl.getWidth()
+				|| image.getHeight() != gl.getHeight()) {
+			return gl.getWidth() * gl.getHeight();
+		}
+		int diff = 0;
+		for (int y = 0; y < gl.getHeight(); ++y) {
+			for (int x = 0; x < gl.getWidth(); ++x) {
+				int c0 = image.getRGB(x, y);
+				int c1 = gl.getColorBuffer().get(y * gl.getWidth() + x);
+				for (int shift = 0; shift < 24; shift += 8) {
+					int d = ((c0 >> shift) & 0xFF) - ((c1 >> shift) & 0xFF);
+					if (Math.abs(d) > COMPARE_TOLERANCE) {
+						++diff;
+						break;
+					}
+				}
+			}
+		}
+		return diff;
+	}
+
+	/**
+	 * Creates scene rendering into given rasterizer.
+	 */
+	private static BotzScene createScene(BotzGLSoftware gl, int ships,
+			float scale) throws Exception {
+		BotzScene scene = new BotzScene(gl, new BotzLogConsole());
+		scene.setSeed(SEED);
+		scene.setEntityCounts(ships, ships * 4 / 3);
+		scene.setResolutionScale(scale);
+		scene.onSurfaceCreated();
+		scene.loadShaders(new BotzHeadless());
+		scene.onSurfaceChanged(gl.getWidth(), gl.getHeight());
+		return scene;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String mode = args.length > 0 ? args[0] : "bench";
+		if (mode.equals("bench")) {
+			int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+			int width = args.length > 2 ? Integer.parseInt(args[2]) : 720;
+			int height = args.length > 3 ? Integer.parseInt(args[3]) : 1280;
+			int ships = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+			float scale = args.length > 5 ? Float.parseFloat(args[5]) : 1f;
+			BotzGLSoftware gl = new BotzGLSoftware(width, height);
+			BotzScene scene = createScene(gl, ships, scale);
+			long start = System.nanoTime();
+			for (int i = 0; i < frames; ++i) {
+				scene.onDrawFrame(i * FRAME_TIME);
+			}
+			double ms = (System.nanoTime() - start) / 1e6 / frames;
+			System.out.printf("%d frames, %.3f ms/frame, %.1f fps%n", frames,
+					ms, 1000 / ms);
+			return;
+		}
+
+		File file = new File(args.length > 1 ? args[1] : "golden.png");
+		int frame = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+		int width = args.length > 3 ? Integer.parseInt(args[3]) : 360;
+		int height = args.length > 4 ? Integer.parseInt(args[4]) : 640;
+		float scale = args.length > 5 ? Float.parseFloat(args[5]) : 1f;
+		BotzGLSoftware gl = new BotzGLSoftware(width, height);
+		BotzScene scene = createScene(gl, 30, scale);
+		for (int i = 0; i <= frame; ++i) {
+			scene.onDrawFrame(i * FRAME_TIME);
+		}
+
+		if (mode.equals("render")) {
+			BufferedImage image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, width, height, gl.getColorBuffer().array(), 0,
+					width);
+			ImageIO.write(image, "png", file);
+			System.out.println("Wrote " + file);
+		} else if (mode.equals("compare")) {
+			int diff = compare(ImageIO.read(file), gl);
+			System.out.println(diff + " pixels differ from " + file);
+			if (diff > width * height * COMPARE_MAX_DIFF) {
+				System.exit(1);
+			}
+		} else {
+			System.err.println("Unknown mode " + mode);
+			System.exit(2);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.io.FileInputStream;
+
+/**
+ * Replays scene trace recorded on device at full speed using recording
+ * BotzGL implementation. State checksums stored in trace are compared
+ * against replayed state and first mismatch is reported. Usage;
+ * 
+ * BotzReplay trace-file
+ * 
+ * Must be run from project root for shader sources to be found.
+ */
+public final class BotzReplay {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: BotzReplay trace-file");
+			System.exit(2);
+		}
+
+		BotzTrace.Reader reader = new BotzTrace.Reader(new FileInputStream(
+				args[0]));
+		BotzGLRecorder gl = new BotzGLRecorder();
+		BotzScene scene = new BotzScene(gl, new BotzLogConsole());
+		scene.setSeed(reader.mSeed);
+		scene.onSurfaceCreated();
+		scene.loadShaders(new BotzHeadless());
+
+		int frames = 0, checksums = 0;
+		long start = System.nanoTime();
+		for (int tag; (tag = reader.next()) != -1;) {
+			switch (tag) {
+			case BotzTrace.TAG_CHECKSUM:
+				int hash = scene.getStateHash();
+				if (hash != reader.mChecksum) {
+					System.out.println("State differs after frame " + frames
+							+ " at time " + reader.mTime);
+					System.exit(1);
+				}
+				++checksums;
+				break;
+			case BotzTrace.TAG_COUNTS:
+				scene.setEntityCounts(reader.mShipCount, reader.mBulletCount);
+				break;
+			case BotzTrace.TAG_FORCE_MODE:
+				scene.setForceMode(reader.mForceMode);
+				break;
+			case BotzTrace.TAG_FRAME:
+				gl.beginFrame();
+				scene.onDrawFrame(reader.mTime);
+				++frames;
+				break;
+			case BotzTrace.TAG_IMPULSE:
+				scene.addImpulse(reader.mImpulseX, reader.mImpulseY);
+				break;
+			case BotzTrace.TAG_SURFACE:
+				scene.onSurfaceChanged(reader.mWidth, reader.mHeight);
+				break;
+			}
+		}
+		reader.close();
+
+		double ms = (System.nanoTime() - start) / 1e6;
+		System.out.printf("%d frames in %.1f ms, %.3f ms/frame, %d checksums"
+				+ " match%n", frames, ms, ms / Math.max(1, frames), checksums);
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+/**
+ * Buffer of collision events emitted by solver and bullet checks during a
+ * frame. Events are stored in preallocated flat arrays, adding events does
+ * not allocate. Events which do not fit are dropped and counted, scene shows
+ * dropped count in overlay.
+ */
+public final class BotzCollisions {
+
+	// Bullet hit ship; bullet index and ship particle id.
+	public static final int TYPE_BULLET_SHIP = 0;
+	// Two ships collided; particle ids of both.
+	public static final int TYPE_SHIP_SHIP = 1;
+	// Ship hit view border; particle id and one of WALL_* values.
+	public static final int TYPE_SHIP_WALL = 2;
+
+	public static final int WALL_BOTTOM = 0;
+	public static final int WALL_LEFT = 1;
+	public static final int WALL_RIGHT = 2;
+	public static final int WALL_TOP = 3;
+
+	private int mCount;
+	private int mDropped;
+	private final int[] mIndices0;
+	private final int[] mIndices1;
+	private final int[] mTypes;
+
+	/**
+	 * Creates buffer with capacity of given number of events. Capacity is
+	 * fixed, larger buffer is created by its owner.
+	 */
+	public BotzCollisions(int capacity) {
+		mTypes = new int[capacity];
+		mIndices0 = new int[capacity];
+		mIndices1 = new int[capacity];
+	}
+
+	/**
+	 * Adds event into buffer.
+	 * 
+	 * @param type
+	 *            One of TYPE_* values.
+	 * @param index0
+	 *            First index, meaning depends on type.
+	 * @param index1
+	 *            Second index, meaning depends on type.
+	 */
+	public void add(int type, int index0, int index1) {
+		if (mCount == mTypes.length) {
+			++mDropped;
+			return;
+		}
+		mTypes[mCount] = type;
+		mIndices0[mCount] = index0;
+		mIndices1[mCount] = index1;
+		++mCount;
+	}
+
+	/**
+	 * Removes all events and resets dropped event counter.
+	 */
+	public void clear() {
+		mCount = mDropped = 0;
+	}
+
+	/**
+	 * Returns maximum number of events buffer holds.
+	 */
+	public int getCapacity() {
+		return mTypes.length;
+	}
+
+	/**
+	 * Returns number of events dropped since buffer was cleared.
+	 */
+	public int getDropped() {
+		return mDropped;
+	}
+
+	/**
+	 * Returns first index of event at given position, oldest event being at
+	 * 0.
+	 */
+	public int getIndex0(int index) {
+		return mIndices0[index];
+	}
+
+	/**
+	 * Returns second index of event at given position.
+	 */
+	public int getIndex1(int index) {
+		return mIndices1[index];
+	}
+
+	/**
+	 * Returns type of event at given position.
+	 */
+	public int getType(int index) {
+		return mTypes[index];
+	}
+
+	/**
+	 * Returns number of events in buffer.
+	 */
+	public int size() {
+		return mCount;
+	}
+
+}
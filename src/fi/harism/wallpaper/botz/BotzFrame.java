@@ -0,0 +1,193 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Vertex data and parameters needed for rendering one frame. Frames are
+ * built from simulation state and drawn later on, possibly on different
+ * threads, and hold everything drawing needs.
+ */
+public final class BotzFrame {
+
+	// Ship stream vertex size in floats.
+	public static final int SHIP_VERTEX_SIZE = 12;
+
+	// Two triangles covering quad [-1, 1] used for circles and bullets.
+	static final float[] QUAD = { -1, 1, -1, -1, 1, 1, 1, 1, -1, -1,
+			1, -1 };
+
+	// Bullet vertex data, mirrors bullet VBO contents once complete.
+	public FloatBuffer mBufferBullets;
+	// Ship vertex stream.
+	public FloatBuffer mBufferShips;
+	// Sparks spawned while building frame.
+	public final FloatBuffer mBufferSparks;
+	// Number of bullets and range [start, end) of bullets to upload.
+	public int mBulletCount;
+	public int mBulletsDirtyStart, mBulletsDirtyEnd;
+	// True if bullet buffer holds all bullets.
+	public boolean mBulletsComplete;
+	public long mBulletsTimeBase;
+	public int mCircleMode;
+	// Number of collision events handled during frame and number of events
+	// dropped as event buffer was full.
+	public int mCollisionCount, mCollisionsDropped;
+	public boolean mIdle;
+	// Ship line half width in view units.
+	public float mLineWidth;
+	public final float[] mMatrixView = new float[9];
+	// Number of particles and number of enabled ones.
+	public int mParticleCount, mParticleEnabled;
+	// Pixels per view unit along x-axis.
+	public float mPixelScale;
+	public float mRadiusBullet;
+	// Buffers allocated by reserve, taken into use once frame is built next.
+	private FloatBuffer mReservedBullets;
+	private FloatBuffer mReservedShips;
+	// Fraction of surface resolution frame is rendered at.
+	public float mResolutionScale;
+	// Number of vertices in ship stream.
+	public int mShipVertexCount;
+	// Time spent in solver, in milliseconds.
+	public float mSolverTime;
+	// Number of sparks spawned, written into spark VBO starting from ring
+	// slot mSparksStart, and number of ring slots to draw.
+	public int mSparkCount;
+	public int mSparksDrawn;
+	public int mSparksStart;
+	// Spark point size in pixels.
+	public float mSparkSize;
+	public long mSparksTimeBase;
+	// True once spawned sparks have been uploaded into VBO.
+	public boolean mSparksUploaded;
+	public long mTime;
+	// True once bullets have been uploaded into VBO.
+	public boolean mUploaded;
+
+	/**
+	 * Creates frame with spark buffer of given size in floats. Ship stream
+	 * and bullet buffer stay empty until reserved.
+	 */
+	public BotzFrame(int sparkSize) {
+		mBufferBullets = allocate(0);
+		mBufferShips = allocate(0);
+		mBufferSparks = allocate(sparkSize);
+	}
+
+	/**
+	 * Allocates direct float buffer of given size.
+	 */
+	private static FloatBuffer allocate(int size) {
+		ByteBuffer buf = ByteBuffer.allocateDirect(4 * size);
+		return buf.order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Returns true if ship stream has room for given number of vertices.
+	 * Stream is reserved for worst case and primitives which would not fit
+	 * are skipped rather than growing it.
+	 */
+	private boolean hasRoom(int vertices) {
+		return mBufferShips.remaining() >= vertices * SHIP_VERTEX_SIZE;
+	}
+
+	/**
+	 * Writes line segment from (x0, y0) to (x1, y1) into ship stream as a
+	 * quad of current line width.
+	 */
+	public void putLine(float x0, float y0, float x1, float y1,
+			float[] color, float type) {
+		if (!hasRoom(6)) {
+			return;
+		}
+		float dx = x1 - x0, dy = y1 - y0;
+		float len = (float) Math.sqrt(dx * dx + dy * dy);
+		float nx = -dy * mLineWidth / len, ny = dx * mLineWidth / len;
+		putVertex(x0 + nx, y0 + ny, 0, 0, color, type, 0, 0, 0, 0);
+		putVertex(x0 - nx, y0 - ny, 0, 0, color, type, 0, 0, 0, 0);
+		putVertex(x1 + nx, y1 + ny, 0, 0, color, type, 0, 0, 0, 0);
+		putVertex(x1 + nx, y1 + ny, 0, 0, color, type, 0, 0, 0, 0);
+		putVertex(x0 - nx, y0 - ny, 0, 0, color, type, 0, 0, 0, 0);
+		putVertex(x1 - nx, y1 - ny, 0, 0, color, type, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Writes quad centered at (x, y) with half sizes (sx, sy) into ship
+	 * stream.
+	 */
+	public void putQuad(float x, float y, float sx, float sy, float[] color,
+			float type, float p0, float p1, float p2, float p3) {
+		if (!hasRoom(6)) {
+			return;
+		}
+		for (int i = 0; i < 12; i += 2) {
+			putVertex(x + QUAD[i] * sx, y + QUAD[i + 1] * sy, QUAD[i],
+					QUAD[i + 1], color, type, p0, p1, p2, p3);
+		}
+	}
+
+	/**
+	 * Writes one vertex into ship stream.
+	 */
+	private void putVertex(float x, float y, float lx, float ly,
+			float[] color, float type, float p0, float p1, float p2, float p3) {
+		mBufferShips.put(x).put(y).put(lx).put(ly);
+		mBufferShips.put(color[0]).put(color[1]).put(color[2]).put(type);
+		mBufferShips.put(p0).put(p1).put(p2).put(p3);
+	}
+
+	/**
+	 * Allocates ship stream and bullet buffer for given number of vertices
+	 * and floats unless current ones are large enough. Can be called from
+	 * any thread, while frame is being built or drawn, buffers are taken
+	 * into use by takeReserved once frame is built next.
+	 */
+	public synchronized void reserve(int shipVertexCount, int bulletSize) {
+		FloatBuffer ships = mReservedShips != null ? mReservedShips
+				: mBufferShips;
+		if (ships.capacity() < shipVertexCount * SHIP_VERTEX_SIZE) {
+			mReservedShips = allocate(shipVertexCount * SHIP_VERTEX_SIZE);
+		}
+		FloatBuffer bullets = mReservedBullets != null ? mReservedBullets
+				: mBufferBullets;
+		if (bullets.capacity() < bulletSize) {
+			mReservedBullets = allocate(bulletSize);
+		}
+	}
+
+	/**
+	 * Takes buffers allocated by reserve into use. Called by thread building
+	 * frame before writing into it, bullet buffer is marked incomplete if it
+	 * was replaced.
+	 */
+	public synchronized void takeReserved() {
+		if (mReservedShips != null) {
+			mBufferShips = mReservedShips;
+			mReservedShips = null;
+		}
+		if (mReservedBullets != null) {
+			mBufferBullets = mReservedBullets;
+			mReservedBullets = null;
+			mBulletsComplete = false;
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.Buffer;
+
+/**
+ * Thin OpenGL ES 2.0 interface covering calls used for rendering. Allows
+ * rendering code to run against GLES20 on device and against headless
+ * implementations on plain JVM. Constant values equal those in GLES20.
+ */
+public interface BotzGL {
+
+	public static final int GL_ALIASED_POINT_SIZE_RANGE = 0x846D;
+	public static final int GL_ARRAY_BUFFER = 0x8892;
+	public static final int GL_BLEND = 0x0BE2;
+	public static final int GL_BYTE = 0x1400;
+	public static final int GL_CLAMP_TO_EDGE = 0x812F;
+	public static final int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+	public static final int GL_COLOR_BUFFER_BIT = 0x4000;
+	public static final int GL_COMPILE_STATUS = 0x8B81;
+	public static final int GL_CULL_FACE = 0x0B44;
+	public static final int GL_DEPTH_TEST = 0x0B71;
+	public static final int GL_DYNAMIC_DRAW = 0x88E8;
+	public static final int GL_FLOAT = 0x1406;
+	public static final int GL_FRAGMENT_SHADER = 0x8B30;
+	public static final int GL_FRAMEBUFFER = 0x8D40;
+	public static final int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+	public static final int GL_LINEAR = 0x2601;
+	public static final int GL_LINE_LOOP = 0x0002;
+	public static final int GL_LINK_STATUS = 0x8B82;
+	public static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+	public static final int GL_POINTS = 0x0000;
+	public static final int GL_RGB = 0x1907;
+	public static final int GL_SHADER_COMPILER = 0x8DFA;
+	public static final int GL_SRC_ALPHA = 0x0302;
+	public static final int GL_TEXTURE0 = 0x84C0;
+	public static final int GL_TEXTURE_2D = 0x0DE1;
+	public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+	public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+	public static final int GL_TEXTURE_WRAP_S = 0x2802;
+	public static final int GL_TEXTURE_WRAP_T = 0x2803;
+	public static final int GL_TRIANGLE_STRIP = 0x0005;
+	public static final int GL_TRIANGLES = 0x0004;
+	public static final int GL_TRUE = 1;
+	public static final int GL_UNSIGNED_BYTE = 0x1401;
+	public static final int GL_VERTEX_SHADER = 0x8B31;
+
+	public void glActiveTexture(int texture);
+
+	public void glAttachShader(int program, int shader);
+
+	public void glBindBuffer(int target, int buffer);
+
+	public void glBindFramebuffer(int target, int framebuffer);
+
+	public void glBindTexture(int target, int texture);
+
+	public void glBlendFunc(int sfactor, int dfactor);
+
+	public void glBufferData(int target, int size, Buffer data, int usage);
+
+	public void glBufferSubData(int target, int offset, int size, Buffer data);
+
+	public int glCheckFramebufferStatus(int target);
+
+	public void glClear(int mask);
+
+	public void glClearColor(float red, float green, float blue, float alpha);
+
+	public void glCompileShader(int shader);
+
+	public int glCreateProgram();
+
+	public int glCreateShader(int type);
+
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+	public void glDeleteProgram(int program);
+
+	public void glDeleteShader(int shader);
+
+	public void glDeleteTextures(int n, int[] textures, int offset);
+
+	public void glDisable(int cap);
+
+	public void glDisableVertexAttribArray(int index);
+
+	public void glDrawArrays(int mode, int first, int count);
+
+	public void glEnable(int cap);
+
+	public void glEnableVertexAttribArray(int index);
+
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level);
+
+	public void glGenBuffers(int n, int[] buffers, int offset);
+
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+	public void glGenTextures(int n, int[] textures, int offset);
+
+	public int glGetAttribLocation(int program, String name);
+
+	public void glGetBooleanv(int pname, boolean[] params, int offset);
+
+	public void glGetFloatv(int pname, float[] params, int offset);
+
+	public String glGetProgramInfoLog(int program);
+
+	public void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+	public String glGetShaderInfoLog(int shader);
+
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+	public int glGetUniformLocation(int program, String name);
+
+	public void glLineWidth(float width);
+
+	public void glLinkProgram(int program);
+
+	public void glShaderSource(int shader, String source);
+
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels);
+
+	public void glTexParameteri(int target, int pname, int param);
+
+	public void glUniform1f(int location, float x);
+
+	public void glUniform1i(int location, int x);
+
+	public void glUniform2f(int location, float x, float y);
+
+	public void glUniform3fv(int location, int count, float[] v, int offset);
+
+	public void glUniformMatrix3fv(int location, int count, boolean transpose,
+			float[] value, int offset);
+
+	public void glUseProgram(int program);
+
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w);
+
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer ptr);
+
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset);
+
+	public void glViewport(int x, int y, int width, int height);
+
+}
@@ -0,0 +1,287 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.Buffer;
+
+import android.opengl.GLES20;
+
+/**
+ * BotzGL implementation forwarding calls to GLES20.
+ */
+public final class BotzGLES20 implements BotzGL {
+
+	@Override
+	public void glActiveTexture(int texture) {
+		GLES20.glActiveTexture(texture);
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		GLES20.glAttachShader(program, shader);
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		GLES20.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		GLES20.glBindFramebuffer(target, framebuffer);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		GLES20.glBindTexture(target, texture);
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		GLES20.glBlendFunc(sfactor, dfactor);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		GLES20.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		GLES20.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target) {
+		return GLES20.glCheckFramebufferStatus(target);
+	}
+
+	@Override
+	public void glClear(int mask) {
+		GLES20.glClear(mask);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		GLES20.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		GLES20.glCompileShader(shader);
+	}
+
+	@Override
+	public int glCreateProgram() {
+		return GLES20.glCreateProgram();
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		return GLES20.glCreateShader(type);
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		GLES20.glDeleteFramebuffers(n, framebuffers, offset);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		GLES20.glDeleteProgram(program);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		GLES20.glDeleteShader(shader);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		GLES20.glDeleteTextures(n, textures, offset);
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		GLES20.glDisable(cap);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		GLES20.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		GLES20.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		GLES20.glEnable(cap);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		GLES20.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		GLES20.glFramebufferTexture2D(target, attachment, textarget, texture,
+				level);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		GLES20.glGenBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		GLES20.glGenFramebuffers(n, framebuffers, offset);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		GLES20.glGenTextures(n, textures, offset);
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		return GLES20.glGetAttribLocation(program, name);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, boolean[] params, int offset) {
+		GLES20.glGetBooleanv(pname, params, offset);
+	}
+
+	@Override
+	public void glGetFloatv(int pname, float[] params, int offset) {
+		GLES20.glGetFloatv(pname, params, offset);
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		return GLES20.glGetProgramInfoLog(program);
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+		GLES20.glGetProgramiv(program, pname, params, offset);
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		return GLES20.glGetShaderInfoLog(shader);
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		GLES20.glGetShaderiv(shader, pname, params, offset);
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		return GLES20.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public void glLineWidth(float width) {
+		GLES20.glLineWidth(width);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		GLES20.glLinkProgram(program);
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+		GLES20.glShaderSource(shader, source);
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		GLES20.glTexImage2D(target, level, internalformat, width, height,
+				border, format, type, pixels);
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		GLES20.glTexParameteri(target, pname, param);
+	}
+
+	@Override
+	public void glUniform1f(int location, float x) {
+		GLES20.glUniform1f(location, x);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		GLES20.glUniform1i(location, x);
+	}
+
+	@Override
+	public void glUniform2f(int location, float x, float y) {
+		GLES20.glUniform2f(location, x, y);
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		GLES20.glUniform3fv(location, count, v, offset);
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		GLES20.glUniformMatrix3fv(location, count, transpose, value, offset);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		GLES20.glUseProgram(program);
+	}
+
+	@Override
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w) {
+		GLES20.glVertexAttrib4f(indx, x, y, z, w);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		GLES20.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		GLES20.glVertexAttribPointer(index, size, type, normalized, stride,
+				offset);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		GLES20.glViewport(x, y, width, height);
+	}
+
+}
@@ -0,0 +1,574 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * Headless BotzGL implementation which renders nothing. Instead it counts
+ * draw calls, state changes, uniform uploads and bytes submitted per frame
+ * and optionally records the call stream. Shaders always compile and link,
+ * names starting with 'a' followed by an upper case letter are treated as
+ * attributes and other names as uniforms, as in shaders of this project.
+ */
+public final class BotzGLRecorder implements BotzGL {
+
+	private static final int MAX_ATTRIBS = 16;
+
+	// Bytes per vertex for client side attribute arrays, 0 for VBO ones.
+	private final int[] mAttribClientBytes = new int[MAX_ATTRIBS];
+	private final boolean[] mAttribEnabled = new boolean[MAX_ATTRIBS];
+	private int mBoundBuffer;
+	private long mBytesSubmitted;
+	private final Vector<String> mCalls = new Vector<String>();
+	private int mDrawCalls;
+	// Fake attribute and uniform locations, keyed by program and name.
+	private final HashMap<String, Integer> mLocationsAttrib = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> mLocationsUniform = new HashMap<String, Integer>();
+	private int mNextName = 1;
+	private float mPointSizeMax = 1024f;
+	private int mProgram;
+	private int mProgramChanges;
+	private boolean mRecordCalls;
+	private int mStateChanges;
+	private int mUniformUploads;
+	private long mVertices;
+
+	/**
+	 * Resets per frame counters and recorded calls. Should be called before
+	 * rendering every frame.
+	 */
+	public void beginFrame() {
+		mBytesSubmitted = 0;
+		mCalls.clear();
+		mDrawCalls = 0;
+		mProgramChanges = 0;
+		mStateChanges = 0;
+		mUniformUploads = 0;
+		mVertices = 0;
+	}
+
+	/**
+	 * Returns bytes submitted during current frame, counting buffer uploads
+	 * and client side vertex arrays read by draw calls.
+	 */
+	public long getBytesSubmitted() {
+		return mBytesSubmitted;
+	}
+
+	/**
+	 * Returns calls recorded during current frame.
+	 */
+	public Vector<String> getCalls() {
+		return mCalls;
+	}
+
+	/**
+	 * Returns number of draw calls during current frame.
+	 */
+	public int getDrawCalls() {
+		return mDrawCalls;
+	}
+
+	/**
+	 * Returns number of glUseProgram calls switching program during current
+	 * frame.
+	 */
+	public int getProgramChanges() {
+		return mProgramChanges;
+	}
+
+	/**
+	 * Returns number of state setting calls during current frame.
+	 */
+	public int getStateChanges() {
+		return mStateChanges;
+	}
+
+	/**
+	 * Returns number of uniform uploads during current frame.
+	 */
+	public int getUniformUploads() {
+		return mUniformUploads;
+	}
+
+	/**
+	 * Returns number of vertices drawn during current frame.
+	 */
+	public long getVertices() {
+		return mVertices;
+	}
+
+	/**
+	 * Returns fake location for given name within program. Locations are
+	 * assigned in order of first query, starting from zero for every program.
+	 */
+	private static int location(HashMap<String, Integer> locations,
+			int program, String name) {
+		String key = program + ":" + name;
+		Integer location = locations.get(key);
+		if (location == null) {
+			Integer count = locations.get(program + "#");
+			location = count == null ? 0 : count;
+			locations.put(program + "#", location + 1);
+			locations.put(key, location);
+		}
+		return location;
+	}
+
+	/**
+	 * Records call. Callers check mRecordCalls first so that arguments are
+	 * not boxed while recording is disabled.
+	 */
+	private void record(String name, Object... args) {
+		StringBuilder call = new StringBuilder(name).append('(');
+		for (int i = 0; i < args.length; ++i) {
+			call.append(i > 0 ? ", " : "").append(args[i]);
+		}
+		mCalls.add(call.append(')').toString());
+	}
+
+	/**
+	 * Sets maximum point size reported for GL_ALIASED_POINT_SIZE_RANGE.
+	 */
+	public void setPointSizeMax(float size) {
+		mPointSizeMax = size;
+	}
+
+	/**
+	 * Enables or disables call stream recording. Disabled by default, counters
+	 * are updated either way.
+	 */
+	public void setRecordCalls(boolean recordCalls) {
+		mRecordCalls = recordCalls;
+	}
+
+	/**
+	 * Returns size of given vertex attribute type in bytes.
+	 */
+	private static int typeSize(int type) {
+		return type == GL_BYTE ? 1 : 4;
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		if (mRecordCalls) {
+			record("glActiveTexture", texture);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		if (mRecordCalls) {
+			record("glAttachShader", program, shader);
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if (mRecordCalls) {
+			record("glBindBuffer", target, buffer);
+		}
+		mBoundBuffer = buffer;
+		++mStateChanges;
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		if (mRecordCalls) {
+			record("glBindFramebuffer", target, framebuffer);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		if (mRecordCalls) {
+			record("glBindTexture", target, texture);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		if (mRecordCalls) {
+			record("glBlendFunc", sfactor, dfactor);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		if (mRecordCalls) {
+			record("glBufferData", target, size, data != null, usage);
+		}
+		if (data != null) {
+			mBytesSubmitted += size;
+		}
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		if (mRecordCalls) {
+			record("glBufferSubData", target, offset, size);
+		}
+		mBytesSubmitted += size;
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target) {
+		return GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	@Override
+	public void glClear(int mask) {
+		if (mRecordCalls) {
+			record("glClear", mask);
+		}
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		if (mRecordCalls) {
+			record("glClearColor", red, green, blue, alpha);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		if (mRecordCalls) {
+			record("glCompileShader", shader);
+		}
+	}
+
+	@Override
+	public int glCreateProgram() {
+		if (mRecordCalls) {
+			record("glCreateProgram");
+		}
+		return mNextName++;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		if (mRecordCalls) {
+			record("glCreateShader", type);
+		}
+		return mNextName++;
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		if (mRecordCalls) {
+			record("glDeleteFramebuffers", n);
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		if (mRecordCalls) {
+			record("glDeleteProgram", program);
+		}
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		if (mRecordCalls) {
+			record("glDeleteShader", shader);
+		}
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		if (mRecordCalls) {
+			record("glDeleteTextures", n);
+		}
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		if (mRecordCalls) {
+			record("glDisable", cap);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		if (mRecordCalls) {
+			record("glDisableVertexAttribArray", index);
+		}
+		mAttribEnabled[index] = false;
+		++mStateChanges;
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		if (mRecordCalls) {
+			record("glDrawArrays", mode, first, count);
+		}
+		for (int i = 0; i < MAX_ATTRIBS; ++i) {
+			if (mAttribEnabled[i]) {
+				mBytesSubmitted += (long) mAttribClientBytes[i] * count;
+			}
+		}
+		mVertices += count;
+		++mDrawCalls;
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		if (mRecordCalls) {
+			record("glEnable", cap);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		if (mRecordCalls) {
+			record("glEnableVertexAttribArray", index);
+		}
+		mAttribEnabled[index] = true;
+		++mStateChanges;
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		if (mRecordCalls) {
+			record("glFramebufferTexture2D", target, attachment, textarget,
+					texture, level);
+		}
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		if (mRecordCalls) {
+			record("glGenBuffers", n);
+		}
+		for (int i = 0; i < n; ++i) {
+			buffers[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		if (mRecordCalls) {
+			record("glGenFramebuffers", n);
+		}
+		for (int i = 0; i < n; ++i) {
+			framebuffers[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		if (mRecordCalls) {
+			record("glGenTextures", n);
+		}
+		for (int i = 0; i < n; ++i) {
+			textures[offset + i] = mNextName++;
+		}
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		if (name.length() < 2 || name.charAt(0) != 'a'
+				|| !Character.isUpperCase(name.charAt(1))) {
+			return -1;
+		}
+		return location(mLocationsAttrib, program, name);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, boolean[] params, int offset) {
+		params[offset] = pname == GL_SHADER_COMPILER;
+	}
+
+	@Override
+	public void glGetFloatv(int pname, float[] params, int offset) {
+		if (pname == GL_ALIASED_POINT_SIZE_RANGE) {
+			params[offset] = 1f;
+			params[offset + 1] = mPointSizeMax;
+		}
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		return "";
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+		params[offset] = GL_TRUE;
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		return "";
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		params[offset] = GL_TRUE;
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		return location(mLocationsUniform, program, name);
+	}
+
+	@Override
+	public void glLineWidth(float width) {
+		if (mRecordCalls) {
+			record("glLineWidth", width);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		if (mRecordCalls) {
+			record("glLinkProgram", program);
+		}
+	}
+
+	@Override
+	public void glShaderSource(int shader, String source) {
+		if (mRecordCalls) {
+			record("glShaderSource", shader);
+		}
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		if (mRecordCalls) {
+			record("glTexImage2D", target, level, width, height, pixels != null);
+		}
+		if (pixels != null) {
+			mBytesSubmitted += (long) width * height
+					* (format == GL_RGB ? 3 : 4);
+		}
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		if (mRecordCalls) {
+			record("glTexParameteri", target, pname, param);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glUniform1f(int location, float x) {
+		if (mRecordCalls) {
+			record("glUniform1f", location, x);
+		}
+		++mUniformUploads;
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		if (mRecordCalls) {
+			record("glUniform1i", location, x);
+		}
+		++mUniformUploads;
+	}
+
+	@Override
+	public void glUniform2f(int location, float x, float y) {
+		if (mRecordCalls) {
+			record("glUniform2f", location, x, y);
+		}
+		++mUniformUploads;
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		if (mRecordCalls) {
+			record("glUniform3fv", location, count);
+		}
+		++mUniformUploads;
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose,
+			float[] value, int offset) {
+		if (mRecordCalls) {
+			record("glUniformMatrix3fv", location, count);
+		}
+		++mUniformUploads;
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		if (mRecordCalls) {
+			record("glUseProgram", program);
+		}
+		if (program != mProgram) {
+			mProgram = program;
+			++mProgramChanges;
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w) {
+		if (mRecordCalls) {
+			record("glVertexAttrib4f", indx, x, y, z, w);
+		}
+		++mStateChanges;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		if (mRecordCalls) {
+			record("glVertexAttribPointer", index, size, type, stride, "client");
+		}
+		mAttribClientBytes[index] = size * typeSize(type);
+		++mStateChanges;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		if (mRecordCalls) {
+			record("glVertexAttribPointer", index, size, type, stride, offset);
+		}
+		// Arrays sourced from VBO were counted once uploaded.
+		mAttribClientBytes[index] = mBoundBuffer == 0 ? size * typeSize(type)
+				: 0;
+		++mStateChanges;
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		if (mRecordCalls) {
+			record("glViewport", x, y, width, height);
+		}
+		++mStateChanges;
+	}
+
+}
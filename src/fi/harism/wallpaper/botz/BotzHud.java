@@ -0,0 +1,273 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Performance overlay showing frame rate, frame time sparkline, solver and
+ * render times, draw calls, particle counts, collisions, resolution scale
+ * and GC count. Text is rendered from a 3x5 bitmap font baked into vertex
+ * data and decoded by scene shader, whole overlay is one draw call and
+ * rendering it does not allocate.
+ */
+public final class BotzHud {
+
+	private static final float[] COLOR_BAR = { .3f, .8f, .2f };
+	private static final float[] COLOR_BAR_SLOW = { .8f, .3f, .2f };
+	private static final float[] COLOR_LIMIT = { .7f, .6f, .1f };
+	private static final float[] COLOR_TEXT = { .9f, .9f, .9f };
+
+	// Number of frame times kept for frame rate and sparkline.
+	private static final int FRAME_COUNT = 60;
+	// Frame time limit drawn over sparkline, in milliseconds.
+	private static final float FRAME_LIMIT = 1000f / 60;
+	// Glyph bitmaps, one octal digit per row from top to bottom, highest bit
+	// being leftmost pixel.
+	private static final int[] GLYPH_BITS = { 075557, 026227, 071747, 071717,
+			055711, 074717, 074757, 071111, 075757, 075717, 000002, 011244,
+			025755, 074447, 065556, 074647, 074644, 074557, 055755, 072227,
+			044447, 057755, 075557, 065644, 065655, 034216, 072222, 055775 };
+	private static final String GLYPHS = "0123456789./ACDEFGHILMOPRSTW";
+	// Maximum number of glyph and bar quads.
+	private static final int MAX_QUADS = 160;
+	private static final float TYPE_GLYPH = 5;
+	private static final float TYPE_SOLID = 2;
+	private static final int VERTEX_SIZE = 12;
+
+	private final FloatBuffer mBuffer;
+	// Glyph pixel size and text cursor, in pixels.
+	private float mCell;
+	private float mCursorX, mCursorY;
+	private int mFrameIndex;
+	private final float[] mFrameTimes = new float[FRAME_COUNT];
+	private volatile int mGcCount;
+	private final BotzGL mGL;
+	private long mLastTime = -1;
+	private final BotzMatrix mMatrix = new BotzMatrix();
+	private final float[] mMatrixValues = new float[9];
+	private float mRenderTime;
+
+	/**
+	 * Creates overlay rendering with given OpenGL implementation.
+	 */
+	public BotzHud(BotzGL gl) {
+		mGL = gl;
+		ByteBuffer buf = ByteBuffer.allocateDirect(4 * MAX_QUADS * 6
+				* VERTEX_SIZE);
+		mBuffer = buf.order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Stores frame time from time given for frame, in milliseconds.
+	 */
+	public void addFrameTime(long time) {
+		if (mLastTime != -1) {
+			mFrameTimes[mFrameIndex] = time - mLastTime;
+			mFrameIndex = (mFrameIndex + 1) % FRAME_COUNT;
+		}
+		mLastTime = time;
+	}
+
+	/**
+	 * Writes one glyph at text cursor and moves cursor forward. Unknown
+	 * characters are rendered as spaces.
+	 */
+	private void putChar(char c) {
+		int index = GLYPHS.indexOf(c);
+		if (index >= 0 && mBuffer.remaining() >= 6 * VERTEX_SIZE) {
+			int bits = GLYPH_BITS[index];
+			// Local y is flipped as pixel y grows downwards.
+			putQuad(mCursorX + 1.5f * mCell, mCursorY + 2.5f * mCell,
+					1.5f * mCell, -2.5f * mCell, COLOR_TEXT, TYPE_GLYPH,
+					(bits >> 9) & 077, (bits >> 3) & 077, (bits & 07) << 3);
+		}
+		mCursorX += 4 * mCell;
+	}
+
+	/**
+	 * Writes non-negative number with given number of decimals.
+	 */
+	private void putNumber(float value, int decimals) {
+		int scale = 1;
+		for (int i = 0; i < decimals; ++i) {
+			scale *= 10;
+		}
+		int fixed = Math.round(Math.max(0, value) * scale);
+		int digits = 1;
+		for (int i = fixed / scale; i >= 10; i /= 10) {
+			++digits;
+		}
+		for (int i = digits - 1; i >= 0; --i) {
+			putChar(GLYPHS.charAt(fixed / scale / pow10(i) % 10));
+		}
+		if (decimals > 0) {
+			putChar('.');
+			for (int i = decimals - 1; i >= 0; --i) {
+				putChar(GLYPHS.charAt(fixed / pow10(i) % 10));
+			}
+		}
+	}
+
+	/**
+	 * Writes quad centered at (x, y) with half sizes (sx, sy).
+	 */
+	private void putQuad(float x, float y, float sx, float sy, float[] color,
+			float type, float p0, float p1, float p2) {
+		for (int i = 0; i < 12; i += 2) {
+			float lx = BotzFrame.QUAD[i], ly = BotzFrame.QUAD[i + 1];
+			mBuffer.put(x + lx * sx).put(y + ly * sy).put(lx).put(ly);
+			mBuffer.put(color[0]).put(color[1]).put(color[2]).put(type);
+			mBuffer.put(p0).put(p1).put(p2).put(0);
+		}
+	}
+
+	/**
+	 * Writes text at text cursor.
+	 */
+	private void putString(String text) {
+		for (int i = 0; i < text.length(); ++i) {
+			putChar(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Returns 10 to the power of given exponent.
+	 */
+	private static int pow10(int exp) {
+		int value = 1;
+		while (exp-- > 0) {
+			value *= 10;
+		}
+		return value;
+	}
+
+	/**
+	 * Renders overlay on top of given frame using given scene shader, which
+	 * should be in use already. Draw calls given are the ones issued for
+	 * frame so far, overlay adds one of its own. View matrix uniform is
+	 * replaced with one mapping pixel coordinates to view.
+	 */
+	public void render(BotzShader shader, BotzFrame frame, int drawCalls,
+			int width, int height) {
+		mBuffer.clear();
+		mCell = Math.max(2f, Math.round(Math.min(width, height) / 180f));
+
+		float total = 0;
+		for (float frameTime : mFrameTimes) {
+			total += frameTime;
+		}
+		setLine(0);
+		putString("FPS ");
+		putNumber(total > 0 ? FRAME_COUNT * 1000f / total : 0, 1);
+		setLine(1);
+		putString("SIM ");
+		putNumber(frame.mSolverTime, 2);
+		putString(" MS");
+		setLine(2);
+		putString("GL ");
+		putNumber(mRenderTime, 2);
+		putString(" MS");
+		setLine(3);
+		putString("DRAW ");
+		putNumber(drawCalls + 1, 0);
+		setLine(4);
+		putString("PART ");
+		putNumber(frame.mParticleCount, 0);
+		putChar('/');
+		putNumber(frame.mParticleEnabled, 0);
+		setLine(5);
+		putString("HITS ");
+		putNumber(frame.mCollisionCount, 0);
+		putString(" DROP ");
+		putNumber(frame.mCollisionsDropped, 0);
+		setLine(6);
+		putString("RES ");
+		putNumber(frame.mResolutionScale, 2);
+		setLine(7);
+		putString("GC ");
+		putNumber(mGcCount, 0);
+
+		// Frame time sparkline, oldest frame first, with frame time limit
+		// line. Bars are scaled so that double limit fills sparkline.
+		float barWidth = mCell;
+		float barHeight = mCell * 12;
+		float x = mCell * 2, y = mCell * (2 + 8 * 7) + barHeight;
+		for (int i = 0; i < FRAME_COUNT; ++i) {
+			float frameTime = mFrameTimes[(mFrameIndex + i) % FRAME_COUNT];
+			float h = Math.min(1f, frameTime / (2 * FRAME_LIMIT)) * barHeight;
+			putQuad(x + (i + .5f) * barWidth, y - h * .5f, barWidth * .4f,
+					h * .5f, frameTime > FRAME_LIMIT ? COLOR_BAR_SLOW
+							: COLOR_BAR, TYPE_SOLID, 0, 0, 0);
+		}
+		putQuad(x + FRAME_COUNT * barWidth * .5f, y - barHeight * .5f,
+				FRAME_COUNT * barWidth * .5f, .5f, COLOR_LIMIT, TYPE_SOLID, 0,
+				0, 0);
+
+		// Map pixel coordinates, origin at top left corner, to view.
+		mMatrix.setScale(2f / width, -2f / height);
+		mMatrix.postTranslate(-1f, 1f);
+		mMatrix.getValues(mMatrixValues);
+		mGL.glUniformMatrix3fv(shader.getHandle("uViewM"), 1, false,
+				mMatrixValues, 0);
+
+		final int stride = VERTEX_SIZE * 4;
+		int aPosition = shader.getHandle("aPosition");
+		int aColor = shader.getHandle("aColor");
+		int aParams = shader.getHandle("aParams");
+		int count = mBuffer.position() / VERTEX_SIZE;
+		mBuffer.position(0);
+		mGL.glVertexAttribPointer(aPosition, 4, BotzGL.GL_FLOAT, false,
+				stride, mBuffer);
+		mGL.glEnableVertexAttribArray(aPosition);
+		mBuffer.position(4);
+		mGL.glVertexAttribPointer(aColor, 4, BotzGL.GL_FLOAT, false, stride,
+				mBuffer);
+		mGL.glEnableVertexAttribArray(aColor);
+		mBuffer.position(8);
+		mGL.glVertexAttribPointer(aParams, 4, BotzGL.GL_FLOAT, false, stride,
+				mBuffer);
+		mGL.glEnableVertexAttribArray(aParams);
+		mBuffer.position(0);
+		mGL.glDrawArrays(BotzGL.GL_TRIANGLES, 0, count);
+	}
+
+	/**
+	 * Sets number of garbage collections shown.
+	 */
+	public void setGcCount(int count) {
+		mGcCount = count;
+	}
+
+	/**
+	 * Moves text cursor to beginning of given line.
+	 */
+	private void setLine(int line) {
+		mCursorX = mCell * 2;
+		mCursorY = mCell * (2 + line * 7);
+	}
+
+	/**
+	 * Sets time it took to render previous frame, in milliseconds.
+	 */
+	public void setRenderTime(float renderTime) {
+		mRenderTime = renderTime;
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+/**
+ * Log output used by Android-free scene classes. BotzLogcat forwards
+ * messages to Android log, headless tools print them on console.
+ */
+public interface BotzLog {
+
+	/**
+	 * Logs debug message with given tag.
+	 */
+	public void d(String tag, String msg);
+
+	/**
+	 * Logs error message with given tag and cause, cause may be null.
+	 */
+	public void e(String tag, String msg, Throwable tr);
+
+}
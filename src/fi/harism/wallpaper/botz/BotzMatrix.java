@@ -0,0 +1,68 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+/**
+ * Minimal 3x3 affine matrix with android.graphics.Matrix semantics. Values
+ * are stored in row major order; post* methods concatenate given
+ * transformation after current one.
+ */
+public final class BotzMatrix {
+
+	private final float[] mValues = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+	/**
+	 * Copies matrix values into given array of size 9.
+	 */
+	public void getValues(float[] values) {
+		System.arraycopy(mValues, 0, values, 0, 9);
+	}
+
+	/**
+	 * Post concatenates matrix with given scale.
+	 */
+	public void postScale(float sx, float sy) {
+		final float[] m = mValues;
+		for (int c = 0; c < 3; ++c) {
+			m[c] *= sx;
+			m[3 + c] *= sy;
+		}
+	}
+
+	/**
+	 * Post concatenates matrix with given translation.
+	 */
+	public void postTranslate(float dx, float dy) {
+		final float[] m = mValues;
+		for (int c = 0; c < 3; ++c) {
+			m[c] += dx * m[6 + c];
+			m[3 + c] += dy * m[6 + c];
+		}
+	}
+
+	/**
+	 * Sets matrix to scale by given factors.
+	 */
+	public void setScale(float sx, float sy) {
+		final float[] m = mValues;
+		m[0] = sx;
+		m[4] = sy;
+		m[8] = 1;
+		m[1] = m[2] = m[3] = m[5] = m[6] = m[7] = 0;
+	}
+
+}
@@ -20,14 +20,18 @@ package fi.harism.wallpaper.botz;
  * Common particle data container class.
  */
 public final class BotzParticle {
-	// Collision time used to indicate about possible collisions.
-	public long mCollisionTime;
 	// If false, this particle does not have effect in collision detection.
 	public boolean mEnabled;
+	// Owner given identifier, reported in collision events.
+	public int mId;
 	// Particle position.
 	public final float[] mPosition = new float[2];
 	// Particle radius used for collision detection.
 	public float mRadius;
+	// If true, particle has settled and solver skips it until woken up.
+	public boolean mSleeping;
+	// Number of successive steps particle has been moving slowly.
+	public int mSleepSteps;
 	// Particle velocity.
 	public final float[] mVelocity = new float[2];
 }
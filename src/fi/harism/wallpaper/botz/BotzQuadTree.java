@@ -0,0 +1,531 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.util.Vector;
+
+/**
+ * Quadtree built over enabled particles. Every node stores particle count and
+ * centre of mass of its subtree, which is what Barnes-Hut force approximation
+ * needs, and answers radius, nearest neighbour and ray queries. All storage
+ * is kept in flat arrays sized at construction, rebuilding tree and querying
+ * it do not allocate.
+ */
+public final class BotzQuadTree {
+
+	// Maximum number of particles stored in a leaf node.
+	private static final int LEAF_SIZE = 4;
+	// Maximum tree depth, stops subdivision for coincident particles.
+	private static final int MAX_DEPTH = 16;
+	// Node storage per particle. Scenes measured stay below 1.4, nodes which
+	// do not fit are left as leaves.
+	private static final int NODES_PER_PARTICLE = 2;
+
+	// Child node distances used while ordering traversal.
+	private final float[] mChildDist2 = new float[4];
+	// Particle indices sorted so that every node covers a continuous range.
+	private final int[] mIndices;
+	private final int[] mIndicesTemp;
+	// Node centre of mass.
+	private final float[] mNodeMassX;
+	private final float[] mNodeMassY;
+	// Index to first of four child nodes or -1 for leaf nodes.
+	private final int[] mNodeChild;
+	private int mNodeCount;
+	// Particle range [start, end) in mIndices.
+	private final int[] mNodeEnd;
+	private final int[] mNodeStart;
+	// Node bounding square; lower left corner and edge length.
+	private final float[] mNodeSize;
+	private final float[] mNodeX;
+	private final float[] mNodeY;
+	private int mParticleCount;
+	// Particle positions and radii copied from particles at build time.
+	private final float[] mPosX;
+	private final float[] mPosY;
+	// Quadrant counters used while partitioning particle ranges.
+	private final int[] mQuadrantPos = new int[4];
+	private final float[] mRadius;
+	// Largest radius among enabled particles.
+	private float mRadiusMax;
+	// Stack used for tree traversal.
+	private final int[] mStack = new int[3 * MAX_DEPTH + 4];
+
+	/**
+	 * Creates tree for up to given number of particles.
+	 */
+	public BotzQuadTree(int particleCapacity) {
+		mPosX = new float[particleCapacity];
+		mPosY = new float[particleCapacity];
+		mRadius = new float[particleCapacity];
+		mIndices = new int[particleCapacity];
+		mIndicesTemp = new int[particleCapacity];
+		int nodeCapacity = particleCapacity * NODES_PER_PARTICLE + 1;
+		mNodeChild = new int[nodeCapacity];
+		mNodeStart = new int[nodeCapacity];
+		mNodeEnd = new int[nodeCapacity];
+		mNodeX = new float[nodeCapacity];
+		mNodeY = new float[nodeCapacity];
+		mNodeSize = new float[nodeCapacity];
+		mNodeMassX = new float[nodeCapacity];
+		mNodeMassY = new float[nodeCapacity];
+	}
+
+	/**
+	 * Allocates given number of nodes and returns index of first one.
+	 */
+	private int addNodes(int count) {
+		int index = mNodeCount;
+		mNodeCount += count;
+		return index;
+	}
+
+	/**
+	 * Returns squared distance from given position to bounding square of
+	 * given node, zero if position is inside it.
+	 */
+	private float boxDist2(int node, float x, float y) {
+		float size = mNodeSize[node];
+		float x0 = mNodeX[node] - x, x1 = x0 + size;
+		float y0 = mNodeY[node] - y, y1 = y0 + size;
+		float nx = x0 > 0 ? x0 : (x1 < 0 ? x1 : 0);
+		float ny = y0 > 0 ? y0 : (y1 < 0 ? y1 : 0);
+		return nx * nx + ny * ny;
+	}
+
+	/**
+	 * Returns distance along ray to where it enters bounding square of given
+	 * node grown by given margin, zero if ray starts inside it, or -1 if ray
+	 * misses it within given length. Ray direction should be unit length.
+	 */
+	private float boxRay(int node, float x, float y, float dirX, float dirY,
+			float length, float margin) {
+		float size = mNodeSize[node] + margin * 2;
+		float x0 = mNodeX[node] - margin - x, y0 = mNodeY[node] - margin - y;
+		float tMin = 0, tMax = length;
+		if (dirX != 0) {
+			float t0 = x0 / dirX, t1 = (x0 + size) / dirX;
+			tMin = Math.max(tMin, Math.min(t0, t1));
+			tMax = Math.min(tMax, Math.max(t0, t1));
+		} else if (x0 > 0 || x0 + size < 0) {
+			return -1;
+		}
+		if (dirY != 0) {
+			float t0 = y0 / dirY, t1 = (y0 + size) / dirY;
+			tMin = Math.max(tMin, Math.min(t0, t1));
+			tMax = Math.min(tMax, Math.max(t0, t1));
+		} else if (y0 > 0 || y0 + size < 0) {
+			return -1;
+		}
+		return tMin <= tMax ? tMin : -1;
+	}
+
+	/**
+	 * Builds tree from enabled particles. Particle indices used by the tree
+	 * refer to given particle Vector, which must not hold more particles
+	 * than tree was created for.
+	 */
+	public void build(Vector<BotzParticle> particles) {
+		if (particles.size() > mPosX.length) {
+			throw new IllegalArgumentException("Tree capacity "
+					+ mPosX.length + " exceeded");
+		}
+
+		// Gather enabled particles and their bounding box.
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		mParticleCount = 0;
+		mRadiusMax = 0;
+		for (int i = 0; i < particles.size(); ++i) {
+			BotzParticle p = particles.get(i);
+			mPosX[i] = p.mPosition[0];
+			mPosY[i] = p.mPosition[1];
+			mRadius[i] = p.mRadius;
+			if (!p.mEnabled)
+				continue;
+			mIndices[mParticleCount++] = i;
+			mRadiusMax = Math.max(mRadiusMax, p.mRadius);
+			minX = Math.min(minX, mPosX[i]);
+			minY = Math.min(minY, mPosY[i]);
+			maxX = Math.max(maxX, mPosX[i]);
+			maxY = Math.max(maxY, mPosY[i]);
+		}
+
+		mNodeCount = 0;
+		int root = addNodes(1);
+		if (mParticleCount == 0) {
+			mNodeChild[root] = -1;
+			mNodeStart[root] = mNodeEnd[root] = 0;
+			mNodeSize[root] = 0;
+			return;
+		}
+		// Root is a square with a small margin so that all particles fall
+		// strictly inside it.
+		float size = Math.max(maxX - minX, maxY - minY) * 1.001f + .0001f;
+		buildNode(root, 0, mParticleCount, minX, minY, size, 0);
+	}
+
+	/**
+	 * Recursively builds given node from particle range [start, end).
+	 */
+	private void buildNode(int node, int start, int end, float x, float y,
+			float size, int depth) {
+		mNodeStart[node] = start;
+		mNodeEnd[node] = end;
+		mNodeX[node] = x;
+		mNodeY[node] = y;
+		mNodeSize[node] = size;
+		mNodeChild[node] = -1;
+
+		// Calculate centre of mass.
+		float sumX = 0, sumY = 0;
+		for (int i = start; i < end; ++i) {
+			sumX += mPosX[mIndices[i]];
+			sumY += mPosY[mIndices[i]];
+		}
+		if (end > start) {
+			mNodeMassX[node] = sumX / (end - start);
+			mNodeMassY[node] = sumY / (end - start);
+		}
+
+		if (end - start <= LEAF_SIZE || depth >= MAX_DEPTH
+				|| mNodeCount + 4 > mNodeChild.length) {
+			return;
+		}
+
+		// Partition particle range into four quadrants using counting sort.
+		float half = size * .5f;
+		float midX = x + half, midY = y + half;
+		final int[] pos = mQuadrantPos;
+		pos[0] = pos[1] = pos[2] = pos[3] = 0;
+		for (int i = start; i < end; ++i) {
+			++pos[quadrant(mIndices[i], midX, midY)];
+		}
+		int child = addNodes(4);
+		mNodeChild[node] = child;
+		for (int i = 0, offset = start; i < 4; ++i) {
+			mNodeStart[child + i] = offset;
+			offset += pos[i];
+			pos[i] = mNodeStart[child + i];
+		}
+		for (int i = start; i < end; ++i) {
+			int idx = mIndices[i];
+			mIndicesTemp[pos[quadrant(idx, midX, midY)]++] = idx;
+		}
+		System.arraycopy(mIndicesTemp, start, mIndices, start, end - start);
+		for (int i = 0; i < 4; ++i) {
+			mNodeEnd[child + i] = pos[i];
+		}
+
+		for (int i = 0; i < 4; ++i) {
+			float cx = (i & 1) == 0 ? x : midX;
+			float cy = (i & 2) == 0 ? y : midY;
+			buildNode(child + i, mNodeStart[child + i], mNodeEnd[child + i],
+					cx, cy, half, depth + 1);
+		}
+	}
+
+	/**
+	 * Returns number of nodes in current tree.
+	 */
+	public int getNodeCount() {
+		return mNodeCount;
+	}
+
+	/**
+	 * Returns number of particles in current tree.
+	 */
+	public int getParticleCount() {
+		return mParticleCount;
+	}
+
+	/**
+	 * Stores indices of up to k particles nearest to given position into
+	 * result array, nearest first, and their squared distances into dist2
+	 * array. Distances are measured to particle positions at the time tree
+	 * was built. Nodes are visited nearest first and skipped once they are
+	 * farther away than k:th nearest particle found so far.
+	 *
+	 * @return Number of indices stored, at most k.
+	 */
+	public int queryNearest(float x, float y, int k, int[] result,
+			float[] dist2) {
+		k = Math.min(k, Math.min(result.length, dist2.length));
+		if (mParticleCount == 0 || k <= 0) {
+			return 0;
+		}
+		int count = 0;
+		int stackSize = 0;
+		mStack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = mStack[--stackSize];
+			if (mNodeEnd[node] == mNodeStart[node])
+				continue;
+			if (count == k && boxDist2(node, x, y) >= dist2[k - 1])
+				continue;
+
+			// Leaf particles are insertion sorted into result.
+			int child = mNodeChild[node];
+			if (child == -1) {
+				for (int i = mNodeStart[node]; i < mNodeEnd[node]; ++i) {
+					float dx = mPosX[mIndices[i]] - x;
+					float dy = mPosY[mIndices[i]] - y;
+					float d2 = dx * dx + dy * dy;
+					if (count == k && d2 >= dist2[k - 1])
+						continue;
+					int j = count < k ? count++ : k - 1;
+					for (; j > 0 && dist2[j - 1] > d2; --j) {
+						result[j] = result[j - 1];
+						dist2[j] = dist2[j - 1];
+					}
+					result[j] = mIndices[i];
+					dist2[j] = d2;
+				}
+				continue;
+			}
+
+			// Children are pushed farthest first so that nearest one is
+			// visited next.
+			pushChildren(child, x, y, stackSize);
+			stackSize += 4;
+		}
+		return count;
+	}
+
+	/**
+	 * Stores indices of particles within distance from given position into
+	 * result array. Distance is compared against particle positions at the
+	 * time tree was built.
+	 *
+	 * @return Number of indices stored, at most result array length.
+	 */
+	public int queryRadius(float x, float y, float dist, int[] result) {
+		if (mParticleCount == 0) {
+			return 0;
+		}
+		final float dist2 = dist * dist;
+		int count = 0;
+		int stackSize = 0;
+		mStack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = mStack[--stackSize];
+			if (mNodeEnd[node] == mNodeStart[node])
+				continue;
+
+			// Skip nodes whose bounding box is too far away.
+			if (boxDist2(node, x, y) >= dist2)
+				continue;
+
+			int child = mNodeChild[node];
+			if (child == -1) {
+				for (int i = mNodeStart[node]; i < mNodeEnd[node]; ++i) {
+					float dx = mPosX[mIndices[i]] - x;
+					float dy = mPosY[mIndices[i]] - y;
+					if (dx * dx + dy * dy < dist2) {
+						if (count == result.length) {
+							return count;
+						}
+						result[count++] = mIndices[i];
+					}
+				}
+				continue;
+			}
+
+			for (int i = 0; i < 4; ++i) {
+				mStack[stackSize++] = child + i;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns index of particle hit first by ray starting from given position
+	 * towards given unit direction within given length, or -1 if ray hits
+	 * none. Particles are circles of their radius and positions at the time
+	 * tree was built, particle containing ray start is hit at distance 0.
+	 * Equally distant hits resolve to lowest index.
+	 *
+	 * @param hit
+	 *            Array of size 1 for storing distance along ray to hit, or
+	 *            null.
+	 */
+	public int queryRay(float x, float y, float dirX, float dirY,
+			float length, float[] hit) {
+		if (mParticleCount == 0) {
+			return -1;
+		}
+		int index = -1;
+		float best = length;
+		int stackSize = 0;
+		mStack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = mStack[--stackSize];
+			if (mNodeEnd[node] == mNodeStart[node])
+				continue;
+			// Particles reach out of node by their radius.
+			if (boxRay(node, x, y, dirX, dirY, best, mRadiusMax) < 0)
+				continue;
+
+			int child = mNodeChild[node];
+			if (child == -1) {
+				for (int i = mNodeStart[node]; i < mNodeEnd[node]; ++i) {
+					int idx = mIndices[i];
+					float ox = mPosX[idx] - x, oy = mPosY[idx] - y;
+					float r2 = mRadius[idx] * mRadius[idx];
+					float d2 = ox * ox + oy * oy;
+					float t = ox * dirX + oy * dirY;
+					float t0;
+					if (d2 < r2) {
+						t0 = 0;
+					} else if (t < 0 || d2 - t * t >= r2) {
+						continue;
+					} else {
+						float h2 = r2 - (d2 - t * t);
+						t0 = t - (float) Math.sqrt(h2);
+					}
+					if (t0 < best
+							|| (t0 == best && (index == -1 || idx < index))) {
+						best = t0;
+						index = idx;
+					}
+				}
+				continue;
+			}
+
+			pushChildren(child, x, y, stackSize);
+			stackSize += 4;
+		}
+		if (hit != null && index != -1) {
+			hit[0] = best;
+		}
+		return index;
+	}
+
+	/**
+	 * Pushes four children starting from given node into traversal stack at
+	 * given position, ordered so that child nearest to given position is on
+	 * top.
+	 */
+	private void pushChildren(int child, float x, float y, int stackSize) {
+		final int[] stack = mStack;
+		final float[] dist = mChildDist2;
+		for (int i = 0; i < 4; ++i) {
+			float d = boxDist2(child + i, x, y);
+			int j = i;
+			for (; j > 0 && dist[j - 1] < d; --j) {
+				dist[j] = dist[j - 1];
+				stack[stackSize + j] = stack[stackSize + j - 1];
+			}
+			dist[j] = d;
+			stack[stackSize + j] = child + i;
+		}
+	}
+
+	/**
+	 * Returns quadrant [0, 3] for given particle index.
+	 */
+	private int quadrant(int index, float midX, float midY) {
+		return (mPosX[index] < midX ? 0 : 1) | (mPosY[index] < midY ? 0 : 2);
+	}
+
+	/**
+	 * Calculates sum of offset vectors (p - pos) over all particles p within
+	 * distance from given position. Nodes which are entirely within or outside
+	 * distance are handled exactly. Nodes crossing distance border are
+	 * approximated by their centre of mass if node size divided by distance
+	 * from centre of mass to interaction border is less than theta. Theta
+	 * value of zero gives exact result.
+	 *
+	 * @param x
+	 *            Query position x.
+	 * @param y
+	 *            Query position y.
+	 * @param dist
+	 *            Interaction distance.
+	 * @param theta
+	 *            Barnes-Hut opening angle.
+	 * @param out
+	 *            Array of size 2 for storing offset sum.
+	 */
+	public void sumOffsets(float x, float y, float dist, float theta,
+			float[] out) {
+		out[0] = out[1] = 0;
+		if (mParticleCount == 0) {
+			return;
+		}
+		final float dist2 = dist * dist;
+		int stackSize = 0;
+		mStack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = mStack[--stackSize];
+			int count = mNodeEnd[node] - mNodeStart[node];
+			if (count == 0)
+				continue;
+
+			// Nearest and farthest distance from query position to node box.
+			float size = mNodeSize[node];
+			float x0 = mNodeX[node] - x, x1 = x0 + size;
+			float y0 = mNodeY[node] - y, y1 = y0 + size;
+			float nx = x0 > 0 ? x0 : (x1 < 0 ? x1 : 0);
+			float ny = y0 > 0 ? y0 : (y1 < 0 ? y1 : 0);
+			if (nx * nx + ny * ny >= dist2)
+				continue;
+			float fx = Math.max(-x0, x1);
+			float fy = Math.max(-y0, y1);
+
+			// Whole node within interaction distance.
+			if (fx * fx + fy * fy < dist2) {
+				out[0] += (mNodeMassX[node] - x) * count;
+				out[1] += (mNodeMassY[node] - y) * count;
+				continue;
+			}
+
+			// Leaf nodes are iterated particle by particle.
+			int child = mNodeChild[node];
+			if (child == -1) {
+				for (int i = mNodeStart[node]; i < mNodeEnd[node]; ++i) {
+					float dx = mPosX[mIndices[i]] - x;
+					float dy = mPosY[mIndices[i]] - y;
+					if (dx * dx + dy * dy < dist2) {
+						out[0] += dx;
+						out[1] += dy;
+					}
+				}
+				continue;
+			}
+
+			// Node far enough from interaction border, compared to its size,
+			// is either included or rejected as a whole based on its centre
+			// of mass.
+			float mx = mNodeMassX[node] - x;
+			float my = mNodeMassY[node] - y;
+			float m = (float) Math.sqrt(mx * mx + my * my);
+			if (size < theta * Math.abs(dist - m)) {
+				if (m < dist) {
+					out[0] += mx * count;
+					out[1] += my * count;
+				}
+				continue;
+			}
+
+			for (int i = 0; i < 4; ++i) {
+				mStack[stackSize++] = child + i;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,1528 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Scene simulation and rendering. Has no Android dependencies, all OpenGL
+ * calls go through given BotzGL and time is given by caller, which allows
+ * running scene on plain JVM with a headless BotzGL implementation.
+ * 
+ * Every frame is first built into a BotzFrame, which runs simulation and
+ * writes vertex data, and then drawn. In pipelined mode a worker thread
+ * builds next frame while rendering thread submits current one. Below full
+ * resolution scale frames are drawn into an offscreen framebuffer, which is
+ * then upscaled onto surface.
+ */
+public final class BotzScene {
+
+	// Circles are rendered as quads discarding fragments outside them.
+	public static final int CIRCLES_DISCARD = 0;
+	// Circles are rendered with alpha blended, antialiased edges. Bullets are
+	// rendered as point sprites.
+	public static final int CIRCLES_SMOOTH = 1;
+
+	// Stress scenario presets.
+	public static final int STRESS_NONE = 0;
+	public static final int STRESS_1K = 1;
+	public static final int STRESS_10K = 2;
+	public static final int STRESS_50K = 3;
+
+	private static final float[] COLOR_BG = { .2f, .2f, .2f };
+	private static final float[] COLOR_BORDER = { .8f, .3f, .2f };
+	private static final float[] COLOR_BULLET = { .7f, .7f, .7f };
+	private static final float[] COLOR_ENERGY1 = { .3f, .8f, .2f };
+	private static final float[] COLOR_ENERGY2 = { .8f, .3f, .2f };
+	private static final float[] COLOR_EXPLODE = { .7f, .6f, .1f };
+	private static final float[] COLOR_SHIP = { .2f, .4f, .9f };
+	private static final float[] COLOR_SPARK = { 1f, .9f, .6f };
+
+	// How long bullet lives after shot, in milliseconds.
+	private static final float BULLET_LIVE_TIME = 700;
+	// Vertex count and size, in floats, for one bullet in bullet VBO.
+	private static final int BULLET_VERTEX_COUNT = 6;
+	private static final int BULLET_VERTEX_SIZE = 8;
+	// Time after which bullet time base is moved forward, in milliseconds.
+	private static final long BULLET_TIME_REBASE = 60000;
+
+	// Collision event buffer space reserved per ship, for ship and wall
+	// collisions during one frame.
+	private static final int COLLISION_EVENTS_PER_SHIP = 4;
+	// Default entity counts and sizes. Ships get smaller once their count
+	// goes above default to keep scene density constant.
+	private static final int DEFAULT_BULLET_COUNT = 40;
+	private static final int DEFAULT_SHIP_COUNT = 30;
+	private static final float DEFAULT_RADIUS_BULLET = .01f;
+	private static final float DEFAULT_RADIUS_SHIP = .1f;
+	// Ship outline vertices.
+	private static final float[] SHIP_LINES = { -.4f, -.5f, 0, .7f, .4f,
+			-.5f };
+	// Most ship stream vertices one ship writes; border, energy and
+	// explosion quads and three outline lines.
+	private static final int SHIP_VERTEX_MAX = 36;
+	// Spark ring buffer capacity, sparks spawned per explosion and how long
+	// sparks live, in milliseconds.
+	private static final int SPARK_CAPACITY = 8192;
+	private static final int SPARK_COUNT = 160;
+	private static final float SPARK_LIVE_TIME = 900;
+	// Spark velocity decay rate, per second, and largest distance sparks
+	// travel, in ship radii.
+	private static final float SPARK_DRAG = 3f;
+	private static final float SPARK_SPREAD = 3f;
+	// Spark vertex size in floats.
+	private static final int SPARK_VERTEX_SIZE = 6;
+	// Ship counts for stress presets and largest ship count forces are
+	// calculated pairwise for, Barnes-Hut is used above it.
+	private static final int PAIRWISE_SHIP_COUNT_MAX = 300;
+	private static final int[] STRESS_SHIP_COUNTS = { DEFAULT_SHIP_COUNT,
+			1000, 10000, 50000 };
+	// Adaptive resolution scale is adjusted once per this many frames, by
+	// given step and down to given minimum scale.
+	private static final int RESOLUTION_FRAMES = 30;
+	private static final float RESOLUTION_SCALE_MIN = .5f;
+	private static final float RESOLUTION_SCALE_STEP = .125f;
+	// Frame time adaptive resolution aims at and frame interval above which
+	// rendering is considered paused, in milliseconds.
+	private static final float RESOLUTION_FRAME_TIME = 1000f / 60;
+	private static final long RESOLUTION_PAUSE_TIME = 100;
+	// Number of adjustment periods on target frame time needed before scale
+	// is raised again, avoids bouncing between two scales.
+	private static final int RESOLUTION_RAISE_PERIODS = 4;
+	// Primitive types understood by scene shader.
+	private static final float TYPE_BULLET = 3;
+	private static final float TYPE_BULLET_POINT = 4;
+	private static final float TYPE_CIRCLE = 0;
+	private static final float TYPE_ENERGY = 1;
+	private static final float TYPE_LINE = 2;
+
+	// Active entities, taken from entity pools.
+	private final Vector<Bullet> mArrBullets = new Vector<Bullet>();
+	private final Vector<BotzParticle> mArrParticles = new Vector<BotzParticle>();
+	private final Vector<Ship> mArrShips = new Vector<Ship>();
+	private final float[] mAspectRatio = new float[2];
+	private final int[] mBufferBulletsVbo = new int[1];
+	// Size of bullet VBO in bytes.
+	private int mBufferBulletsVboSize;
+	// Full view quad as triangle strip.
+	private final ByteBuffer mBufferQuad;
+	// Spark ring buffer VBO, created once sparks are drawn first time.
+	private boolean mBufferSparksCreated;
+	private final int[] mBufferSparksVbo = new int[1];
+	// Range [start, end) of bullets changed since previous frame was built,
+	// and the same range for previous frame.
+	private int mBulletsDirtyStart, mBulletsDirtyEnd;
+	private int mBulletsDirtyPrevStart, mBulletsDirtyPrevEnd;
+	// Bullet shoot times are stored relative to this time.
+	private long mBulletsTimeBase = -1;
+	private volatile int mCircleMode = CIRCLES_SMOOTH;
+	private final float[] mColor = new float[3];
+	private final float[] mColor2 = new float[3];
+	// Draw calls issued while drawing current frame, shown on overlay.
+	private int mDrawCalls;
+	// Entity counts requested, taken into use on next frame.
+	private boolean mEntityCountsChanged;
+	private int mEntityCountBullets, mEntityCountShips;
+	// Solver force mode requested and the one in use.
+	private volatile int mForceMode = BotzSolver.FORCE_PAIRWISE;
+	private int mForceModeApplied = BotzSolver.FORCE_PAIRWISE;
+	// Offscreen framebuffer and its texture, with size of zero if not
+	// created. Framebuffer is not supported if creating it failed.
+	private final int[] mFramebuffer = new int[1];
+	private int mFramebufferHeight, mFramebufferWidth;
+	private volatile boolean mFramebufferSupported = true;
+	private final int[] mFramebufferTexture = new int[1];
+	// Frame being built while frame drawn last is not.
+	private boolean mFrameBuilding;
+	// Frame drawn last, redrawn if next one is not ready in time.
+	private BotzFrame mFrameCurrent;
+	private final Object mFrameLock = new Object();
+	// Frame built by worker thread, waiting to be drawn.
+	private BotzFrame mFrameReady;
+	// True if worker thread should build next frame at request time.
+	private boolean mFrameRequested;
+	private long mFrameRequestTime;
+	// Frames built and drawn in turns.
+	private final BotzFrame[] mFrames = new BotzFrame[2];
+	private final BotzGL mGL;
+	// Touch impulse waiting to be applied on next frame.
+	private final float[] mGravity = new float[2];
+	private final BotzHud mHud;
+	private volatile boolean mHudEnabled;
+	private final BotzLog mLog;
+	private final BotzMatrix mMatrixView = new BotzMatrix();
+	private final float[] mPointSizeRange = new float[2];
+	// Entity pools, grown on demand and never shrunk.
+	private final Vector<Bullet> mPoolBullets = new Vector<Bullet>();
+	private final Vector<Ship> mPoolShips = new Vector<Ship>();
+	// Nearest ships query buffer, shooter itself is one of them.
+	private final BotzParticle[] mQueryNearest = new BotzParticle[2];
+	private final BotzParticle[] mQueryParticles = new BotzParticle[64];
+	private final Random mRandom = new Random();
+	// Sparks have random generator of their own to keep simulation same with
+	// or without them.
+	private final Random mRandomSparks = new Random();
+	private float mRadiusBullet = DEFAULT_RADIUS_BULLET;
+	private float mRadiusShip = DEFAULT_RADIUS_SHIP;
+	// Requested resolution scale, or maximum one in adaptive mode, and scale
+	// frames are built for.
+	private volatile boolean mResolutionAdaptive;
+	private volatile float mResolutionScale = 1f;
+	private volatile float mResolutionScaleApplied = 1f;
+	// Frame interval statistics for adaptive resolution.
+	private int mResolutionFrames;
+	private int mResolutionPeriods;
+	private long mResolutionTimeLast = -1;
+	private long mResolutionTimeSum;
+	// True if scene drawn last has settled and continuous rendering is not
+	// needed.
+	private volatile boolean mSceneIdle;
+	private final boolean[] mShaderCompilerSupport = new boolean[1];
+	// Shader upscaling offscreen framebuffer onto surface.
+	private final BotzShader mShaderCopy;
+	// Scene shader variants for CIRCLES_DISCARD and CIRCLES_SMOOTH.
+	private final BotzShader mShaderScene;
+	private final BotzShader mShaderSceneSmooth;
+	private final BotzShader mShaderSpark;
+	private final BotzSolver mSolver = new BotzSolver();
+	// Next spark ring slot to write into and number of slots written.
+	private int mSparksHead;
+	private int mSparksUsed;
+	// Spark spawn times are stored relative to time base. Latest spawn time
+	// tells if any spark is still alive.
+	private long mSparksTimeBase = -1;
+	private long mSparksTimeLast = -1;
+	// Trace recording simulation inputs, null if not recording.
+	private volatile BotzTrace mTrace;
+	private int mWidth, mHeight;
+	// Worker thread building frames in pipelined mode.
+	private Thread mWorker;
+
+	/**
+	 * Creates scene rendering with given OpenGL implementation and writing
+	 * messages into given log.
+	 */
+	public BotzScene(BotzGL gl, BotzLog log) {
+		mGL = gl;
+		mLog = log;
+		mShaderCopy = new BotzShader(gl, log);
+		mShaderScene = new BotzShader(gl, log);
+		mShaderSceneSmooth = new BotzShader(gl, log);
+		mShaderSpark = new BotzShader(gl, log);
+		mHud = new BotzHud(gl);
+		mSolver.setRandom(mRandom);
+
+		// Full view quad buffer.
+		final byte[] QUAD = { -1, 1, -1, -1, 1, 1, 1, -1 };
+		mBufferQuad = ByteBuffer.allocateDirect(8);
+		mBufferQuad.put(QUAD).position(0);
+
+		// Frames, ship and bullet buffers are reserved with entity counts.
+		for (int i = 0; i < mFrames.length; ++i) {
+			mFrames[i] = new BotzFrame(SPARK_CAPACITY * SPARK_VERTEX_SIZE);
+		}
+
+		// Particle, ship and bullet instance generation.
+		setEntityCounts(DEFAULT_SHIP_COUNT, DEFAULT_BULLET_COUNT);
+		applyEntityCounts();
+	}
+
+	/**
+	 * Adds 'gravity' to particles. Used for touch event handling.
+	 */
+	public void addGravity(float dx, float dy) {
+		float t = Math.min(mWidth, mHeight) * .8f;
+		addImpulse(dx / t, dy / t);
+	}
+
+	/**
+	 * Adds impulse to particle velocities on next frame.
+	 */
+	public void addImpulse(float dx, float dy) {
+		synchronized (mGravity) {
+			mGravity[0] += dx;
+			mGravity[1] += dy;
+		}
+	}
+
+	/**
+	 * Takes requested entity counts into use. Entity pools have been grown
+	 * already and this method only moves entities between pools and active
+	 * sets.
+	 */
+	private synchronized void applyEntityCounts() {
+		if (!mEntityCountsChanged) {
+			return;
+		}
+		mEntityCountsChanged = false;
+		BotzTrace trace = mTrace;
+		if (trace != null) {
+			trace.writeCounts(mEntityCountShips, mEntityCountBullets);
+		}
+
+		mRadiusShip = DEFAULT_RADIUS_SHIP
+				* (float) Math.sqrt(Math.min(1f, (float) DEFAULT_SHIP_COUNT
+						/ mEntityCountShips));
+		mRadiusBullet = mRadiusShip * DEFAULT_RADIUS_BULLET
+				/ DEFAULT_RADIUS_SHIP;
+
+		// Add ships from pool or drop extra ones.
+		mArrShips.setSize(Math.min(mArrShips.size(), mEntityCountShips));
+		while (mArrShips.size() < mEntityCountShips) {
+			Ship ship = mPoolShips.get(mArrShips.size());
+			ship.mEnergy = 1f;
+			ship.mVisible = true;
+			ship.mExplode = false;
+			mSolver.initParticle(ship.mParticle);
+			mArrShips.add(ship);
+		}
+		// Solver may have reordered particles, gather them from ships.
+		mArrParticles.clear();
+		for (int i = 0; i < mArrShips.size(); ++i) {
+			BotzParticle p = mArrShips.get(i).mParticle;
+			p.mRadius = mRadiusShip;
+			p.mId = i;
+			mArrParticles.add(p);
+		}
+
+		// Add bullets from pool or drop extra ones.
+		mArrBullets.setSize(Math.min(mArrBullets.size(), mEntityCountBullets));
+		while (mArrBullets.size() < mEntityCountBullets) {
+			Bullet b = mPoolBullets.get(mArrBullets.size());
+			b.mShootTime = 0;
+			b.mParticle.mEnabled = false;
+			mArrBullets.add(b);
+		}
+		mBulletsDirtyStart = 0;
+		mBulletsDirtyEnd = mArrBullets.size();
+	}
+
+	/**
+	 * Binds offscreen framebuffer sized for given resolution scale, creating
+	 * it first if needed, and clears it.
+	 * 
+	 * @return False if framebuffer could not be created.
+	 */
+	private boolean bindFramebuffer(float resolutionScale) {
+		int width = Math.max(1, Math.round(mWidth * resolutionScale));
+		int height = Math.max(1, Math.round(mHeight * resolutionScale));
+		if (width != mFramebufferWidth || height != mFramebufferHeight) {
+			deleteFramebuffer();
+			mGL.glGenTextures(1, mFramebufferTexture, 0);
+			mGL.glBindTexture(BotzGL.GL_TEXTURE_2D, mFramebufferTexture[0]);
+			mGL.glTexParameteri(BotzGL.GL_TEXTURE_2D,
+					BotzGL.GL_TEXTURE_MIN_FILTER, BotzGL.GL_LINEAR);
+			mGL.glTexParameteri(BotzGL.GL_TEXTURE_2D,
+					BotzGL.GL_TEXTURE_MAG_FILTER, BotzGL.GL_LINEAR);
+			mGL.glTexParameteri(BotzGL.GL_TEXTURE_2D,
+					BotzGL.GL_TEXTURE_WRAP_S, BotzGL.GL_CLAMP_TO_EDGE);
+			mGL.glTexParameteri(BotzGL.GL_TEXTURE_2D,
+					BotzGL.GL_TEXTURE_WRAP_T, BotzGL.GL_CLAMP_TO_EDGE);
+			mGL.glTexImage2D(BotzGL.GL_TEXTURE_2D, 0, BotzGL.GL_RGB, width,
+					height, 0, BotzGL.GL_RGB, BotzGL.GL_UNSIGNED_BYTE, null);
+			mGL.glGenFramebuffers(1, mFramebuffer, 0);
+			mGL.glBindFramebuffer(BotzGL.GL_FRAMEBUFFER, mFramebuffer[0]);
+			mGL.glFramebufferTexture2D(BotzGL.GL_FRAMEBUFFER,
+					BotzGL.GL_COLOR_ATTACHMENT0, BotzGL.GL_TEXTURE_2D,
+					mFramebufferTexture[0], 0);
+			// Without offscreen framebuffer frames are built for surface
+			// resolution from now on.
+			int status = mGL.glCheckFramebufferStatus(BotzGL.GL_FRAMEBUFFER);
+			if (status != BotzGL.GL_FRAMEBUFFER_COMPLETE) {
+				mGL.glBindFramebuffer(BotzGL.GL_FRAMEBUFFER, 0);
+				deleteFramebuffer();
+				mFramebufferSupported = false;
+				return false;
+			}
+			mFramebufferWidth = width;
+			mFramebufferHeight = height;
+		} else {
+			mGL.glBindFramebuffer(BotzGL.GL_FRAMEBUFFER, mFramebuffer[0]);
+		}
+		mGL.glViewport(0, 0, width, height);
+		mGL.glClear(BotzGL.GL_COLOR_BUFFER_BIT);
+		return true;
+	}
+
+	/**
+	 * Builds frame at given time, in milliseconds. Runs simulation and writes
+	 * vertex data into given frame without making any OpenGL calls.
+	 */
+	private void buildFrame(BotzFrame frame, long time) {
+
+		// Scale factor.
+		float scale = 1f;
+		// Scaling happens in 20sec cycles.
+		long timeScale = time % 20000;
+		// Calculate smooth transitions between [1f, 2f].
+		if (timeScale > 17000) {
+			float t = (timeScale - 17000) / 3000f;
+			scale = 2f - t * t * (3 - 2 * t);
+		} else if (timeScale > 10000) {
+			scale = 2f;
+		} else if (timeScale > 7000) {
+			float t = (timeScale - 7000) / 3000f;
+			scale = 1f + t * t * (3 - 2 * t);
+		}
+
+		// Frame is drawn at resolution scale chosen for it, pixel sizes are
+		// given in render target pixels.
+		frame.mResolutionScale = mFramebufferSupported ? mResolutionScaleApplied
+				: 1f;
+
+		// Set up view matrix.
+		mMatrixView.setScale(mAspectRatio[0], mAspectRatio[1]);
+		mMatrixView.postScale(scale, scale);
+		mMatrixView.getValues(frame.mMatrixView);
+		frame.mPixelScale = mAspectRatio[0] * scale * mWidth * .5f
+				* frame.mResolutionScale;
+
+		// Calculate line width, given in pixels and scaled with view. Line
+		// keeps its width on surface but is at least one pixel wide in render
+		// target.
+		float lineWidth = Math.max(1f, Math.min(mWidth, mHeight)
+				* frame.mResolutionScale * 0.008f);
+		frame.mLineWidth = lineWidth * scale * .5f / frame.mPixelScale;
+		frame.mCircleMode = mCircleMode;
+		frame.mTime = time;
+
+		// Take new entity counts, force mode and touch impulses into use.
+		BotzTrace trace = mTrace;
+		applyEntityCounts();
+		frame.takeReserved();
+		int forceMode = mArrShips.size() > PAIRWISE_SHIP_COUNT_MAX
+				? BotzSolver.FORCE_BARNES_HUT : mForceMode;
+		if (mForceModeApplied != forceMode) {
+			mForceModeApplied = forceMode;
+			mSolver.setForceMode(mForceModeApplied);
+			if (trace != null) {
+				trace.writeForceMode(mForceModeApplied);
+			}
+		}
+		synchronized (mGravity) {
+			if (mGravity[0] != 0 || mGravity[1] != 0) {
+				if (trace != null) {
+					trace.writeImpulse(mGravity[0], mGravity[1]);
+				}
+				for (int i = 0; i < mArrParticles.size(); ++i) {
+					BotzParticle p = mArrParticles.get(i);
+					p.mVelocity[0] += mGravity[0];
+					p.mVelocity[1] += mGravity[1];
+					mSolver.wake(p);
+				}
+				mGravity[0] = mGravity[1] = 0;
+			}
+		}
+
+		// Animate ships.
+		long solverStart = System.nanoTime();
+		mSolver.animate(time);
+		frame.mSolverTime = (System.nanoTime() - solverStart) / 1000000f;
+		boolean sleeping = mSolver.isSleeping();
+
+		// Move bullet time base forward every once in a while to keep float
+		// precision good enough on GPU side.
+		if (mBulletsTimeBase == -1
+				|| time - mBulletsTimeBase > BULLET_TIME_REBASE) {
+			mBulletsTimeBase = time;
+			mBulletsDirtyStart = 0;
+			mBulletsDirtyEnd = mArrBullets.size();
+		}
+
+		// Handle bullet movement.
+		for (int i = 0; i < mArrBullets.size(); ++i) {
+			Bullet b = mArrBullets.get(i);
+			// If lifetime exceeded generate new shot. Settled scene does not
+			// fire new bullets as they would only wake it up again.
+			if (time - b.mShootTime > BULLET_LIVE_TIME && sleeping) {
+				if (b.mParticle.mEnabled) {
+					b.mParticle.mEnabled = false;
+					setBulletDirty(i);
+				}
+			} else if (time - b.mShootTime > BULLET_LIVE_TIME) {
+				// Find random enabled ship particle. Give up after a few
+				// tries, all ships might be exploding.
+				BotzParticle p = null;
+				for (int j = 0; j < 32 && (p == null || !p.mEnabled); ++j) {
+					p = mArrParticles.get(mRandom.nextInt(mArrParticles.size()));
+				}
+				if (p == null || !p.mEnabled) {
+					if (b.mParticle.mEnabled) {
+						b.mParticle.mEnabled = false;
+						setBulletDirty(i);
+					}
+					continue;
+				}
+				// Aim at nearest other enabled ship, or along velocity if
+				// there is none.
+				BotzParticle target = null;
+				int count = mSolver.queryNearest(p.mPosition[0],
+						p.mPosition[1], mQueryNearest.length, mQueryNearest);
+				for (int j = 0; j < count && target == null; ++j) {
+					if (mQueryNearest[j] != p && mQueryNearest[j].mEnabled) {
+						target = mQueryNearest[j];
+					}
+				}
+				float dx = p.mVelocity[0], dy = p.mVelocity[1];
+				if (target != null) {
+					dx = target.mPosition[0] - p.mPosition[0];
+					dy = target.mPosition[1] - p.mPosition[1];
+				}
+				// Calculate direction normal.
+				float len2 = dx * dx + dy * dy;
+				float len = (float) Math.sqrt(len2);
+				float nx = dx / len;
+				float ny = dy / len;
+				// Set bullet start position in front of selected ship. Add some
+				// border to avoid collision with itself.
+				b.mPosStart[0] = p.mPosition[0] + nx * (mRadiusShip + .01f);
+				b.mPosStart[1] = p.mPosition[1] + ny * (mRadiusShip + .01f);
+				// Max length for shoot is of length 1.
+				b.mPosEnd[0] = p.mPosition[0] + nx;
+				b.mPosEnd[1] = p.mPosition[1] + ny;
+				b.mShootTime = time;
+				b.mParticle.mEnabled = true;
+				setBulletDirty(i);
+			}
+
+			// Move bullet. Rendering interpolates bullet position on GPU,
+			// position is needed here for collision checks only.
+			if (b.mParticle.mEnabled) {
+				float t = (time - b.mShootTime) / BULLET_LIVE_TIME;
+				BotzParticle p = b.mParticle;
+				p.mPosition[0] = b.mPosStart[0]
+						+ (b.mPosEnd[0] - b.mPosStart[0]) * t;
+				p.mPosition[1] = b.mPosStart[1]
+						+ (b.mPosEnd[1] - b.mPosStart[1]) * t;
+			}
+		}
+
+		// Check bullet collisions against ships near them. Hits are added
+		// into same event buffer solver reports its collisions into.
+		BotzCollisions collisions = mSolver.getCollisions();
+		for (int i = 0; i < mArrBullets.size(); ++i) {
+			Bullet b = mArrBullets.get(i);
+			if (!b.mParticle.mEnabled)
+				continue;
+			BotzParticle p = b.mParticle;
+			int count = mSolver.queryParticles(p.mPosition[0], p.mPosition[1],
+					mRadiusShip + p.mRadius, mQueryParticles);
+			for (int j = 0; j < count; ++j) {
+				BotzParticle ship = mQueryParticles[j];
+				if (mSolver.collide(ship, p)) {
+					// This will trigger new bullet shot.
+					b.mShootTime = -1;
+					collisions.add(BotzCollisions.TYPE_BULLET_SHIP, i,
+							ship.mId);
+					mSolver.wake(ship);
+				}
+			}
+		}
+
+		// Consume collision events in one pass. Ship loses energy for every
+		// event it is part of, ship to ship events damage both ships.
+		int collisionCount = collisions.size();
+		for (int i = 0; i < collisionCount; ++i) {
+			switch (collisions.getType(i)) {
+			case BotzCollisions.TYPE_BULLET_SHIP:
+				damageShip(collisions.getIndex1(i), time);
+				break;
+			case BotzCollisions.TYPE_SHIP_SHIP:
+				damageShip(collisions.getIndex0(i), time);
+				damageShip(collisions.getIndex1(i), time);
+				break;
+			case BotzCollisions.TYPE_SHIP_WALL:
+				damageShip(collisions.getIndex0(i), time);
+				break;
+			}
+		}
+		frame.mCollisionCount = collisionCount;
+		frame.mCollisionsDropped = collisions.getDropped();
+		collisions.clear();
+
+		// Move spark time base forward, like bullet time base, but only once
+		// no spark is alive as sparks are not uploaded again. Spawn times in
+		// written slots are relative to old base and would come alive again
+		// later, ring restarts empty instead.
+		if (mSparksTimeBase == -1
+				|| (time - mSparksTimeBase > BULLET_TIME_REBASE && time
+						- mSparksTimeLast > SPARK_LIVE_TIME)) {
+			mSparksTimeBase = time;
+			mSparksHead = mSparksUsed = 0;
+		}
+		frame.mSparkCount = 0;
+		frame.mSparksStart = mSparksHead;
+
+		// Iterate over ships to see if there are explosions and after certain
+		// amount of time restore ship back to enabled.
+		boolean exploding = false;
+		int enabled = 0;
+		for (int i = 0; i < mArrShips.size(); ++i) {
+			Ship ship = mArrShips.get(i);
+			// If ship isn't exploding already and energy goes to zero, mark
+			// ship as exploding.
+			if (!ship.mExplode && ship.mEnergy <= 0f) {
+				ship.mExplodeTime = time;
+				ship.mParticle.mEnabled = false;
+				ship.mExplode = true;
+				spawnSparks(frame, ship.mParticle, time);
+			}
+			// If ship is exploding and certain amount of time has passed mark
+			// ship back to enabled.
+			if (ship.mExplode && time - ship.mExplodeTime > 5000) {
+				ship.mEnergy = 1.0f;
+				ship.mParticle.mEnabled = true;
+				ship.mExplode = false;
+				ship.mVisible = true;
+				mSolver.wake(ship.mParticle);
+			}
+			exploding |= ship.mExplode;
+			enabled += ship.mParticle.mEnabled ? 1 : 0;
+		}
+		frame.mParticleCount = mArrShips.size();
+		frame.mParticleEnabled = enabled;
+
+		// Ring slots are drawn as long as latest sparks are alive.
+		frame.mSparksDrawn = time - mSparksTimeLast <= SPARK_LIVE_TIME
+				? mSparksUsed : 0;
+		frame.mSparksTimeBase = mSparksTimeBase;
+		frame.mSparkSize = Math.max(1f, mRadiusShip * frame.mPixelScale
+				* .15f);
+		frame.mSparksUploaded = false;
+
+		// Scene is idle once all ships are sleeping, no ship is exploding
+		// and last bullets have faded away.
+		boolean idle = sleeping && !exploding;
+		for (int i = 0; i < mArrBullets.size(); ++i) {
+			Bullet b = mArrBullets.get(i);
+			idle &= !b.mParticle.mEnabled;
+		}
+		frame.mIdle = idle;
+
+		writeBullets(frame);
+		writeShips(frame, time);
+
+		if (trace != null) {
+			trace.writeFrame(time);
+			if (trace.isChecksumFrame()) {
+				trace.writeChecksum(getStateHash());
+			}
+		}
+	}
+
+	/**
+	 * Decreases energy of ship with given index for one collision event.
+	 * Collision time is stamped for ship flash effect only.
+	 */
+	private void damageShip(int index, long time) {
+		Ship ship = mArrShips.get(index);
+		ship.mCollisionTime = time;
+		ship.mEnergy -= .01f;
+	}
+
+	/**
+	 * Deletes offscreen framebuffer and its texture, if any.
+	 */
+	private void deleteFramebuffer() {
+		if (mFramebuffer[0] != 0) {
+			mGL.glDeleteFramebuffers(1, mFramebuffer, 0);
+		}
+		if (mFramebufferTexture[0] != 0) {
+			mGL.glDeleteTextures(1, mFramebufferTexture, 0);
+		}
+		mFramebuffer[0] = mFramebufferTexture[0] = 0;
+		mFramebufferWidth = mFramebufferHeight = 0;
+	}
+
+	/**
+	 * Draws frame built earlier. Frame may be drawn more than once if next
+	 * frame is not ready in time.
+	 */
+	private void drawFrame(BotzFrame frame) {
+		long renderStart = System.nanoTime();
+		mSceneIdle = frame.mIdle;
+		mDrawCalls = 0;
+
+		// Frames below full resolution are drawn into offscreen framebuffer,
+		// which is kept only as long as it is used.
+		boolean offscreen = false;
+		if (frame.mResolutionScale < 1f) {
+			offscreen = bindFramebuffer(frame.mResolutionScale);
+		} else if (mFramebufferWidth != 0) {
+			deleteFramebuffer();
+		}
+
+		// Smooth circles need alpha blending.
+		if (frame.mCircleMode == CIRCLES_SMOOTH) {
+			mGL.glEnable(BotzGL.GL_BLEND);
+			mGL.glBlendFunc(BotzGL.GL_SRC_ALPHA,
+					BotzGL.GL_ONE_MINUS_SRC_ALPHA);
+		} else {
+			mGL.glDisable(BotzGL.GL_BLEND);
+		}
+
+		// Rendering calls, all passes share one program.
+		BotzShader shader = frame.mCircleMode == CIRCLES_SMOOTH
+				? mShaderSceneSmooth : mShaderScene;
+		shader.useProgram();
+		// Fall back to quads if bullets do not fit in point sprites.
+		boolean points = frame.mCircleMode == CIRCLES_SMOOTH
+				&& frame.mRadiusBullet * frame.mPixelScale * 2
+						<= mPointSizeRange[1];
+		mGL.glUniformMatrix3fv(shader.getHandle("uViewM"), 1, false,
+				frame.mMatrixView, 0);
+		renderBullets(shader, frame, points);
+		renderShips(shader, frame);
+		renderSparks(frame);
+
+		// Overlay is drawn on top of upscaled frame at surface resolution.
+		if (offscreen) {
+			renderCopy();
+		}
+		if (mHudEnabled) {
+			shader.useProgram();
+			mHud.render(shader, frame, mDrawCalls, mWidth, mHeight);
+			mHud.setRenderTime((System.nanoTime() - renderStart) / 1000000f);
+		}
+	}
+
+	/**
+	 * Returns hash of simulation state, particle positions, velocities and
+	 * flags and ship energies. Used for verifying trace replay gives same
+	 * state as original run did.
+	 */
+	public int getStateHash() {
+		int hash = mArrShips.size();
+		for (int i = 0; i < mArrShips.size(); ++i) {
+			Ship ship = mArrShips.get(i);
+			BotzParticle p = ship.mParticle;
+			hash = hash * 31 + Float.floatToIntBits(p.mPosition[0]);
+			hash = hash * 31 + Float.floatToIntBits(p.mPosition[1]);
+			hash = hash * 31 + Float.floatToIntBits(p.mVelocity[0]);
+			hash = hash * 31 + Float.floatToIntBits(p.mVelocity[1]);
+			hash = hash * 31 + (p.mEnabled ? 1 : 0) + (p.mSleeping ? 2 : 0);
+			hash = hash * 31 + Float.floatToIntBits(ship.mEnergy);
+		}
+		for (int i = 0; i < mArrBullets.size(); ++i) {
+			Bullet b = mArrBullets.get(i);
+			hash = hash * 31 + (int) b.mShootTime;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns true if scene has settled and continuous rendering can be
+	 * stopped until next touch event.
+	 */
+	public boolean isIdle() {
+		return mSceneIdle;
+	}
+
+	/**
+	 * Loads shader programs using given source loader. Should be called after
+	 * onSurfaceCreated returned true.
+	 */
+	public void loadShaders(SourceLoader loader) throws Exception {
+		String vertexSource = loader.loadSource("scene_vs");
+		String fragmentSource = loader.loadSource("scene_fs");
+		mShaderScene.setProgram(vertexSource, fragmentSource);
+		mShaderSceneSmooth.setProgram(vertexSource, "#define SMOOTH\n"
+				+ fragmentSource);
+		mShaderCopy.setProgram(loader.loadSource("copy_vs"),
+				loader.loadSource("copy_fs"));
+		mShaderSpark.setProgram(loader.loadSource("spark_vs"),
+				loader.loadSource("spark_fs"));
+	}
+
+	/**
+	 * Renders one frame at given time, in milliseconds. In pipelined mode
+	 * frame drawn is the one built during previous call, or the one drawn
+	 * last if worker thread has not finished yet, and next frame is built at
+	 * given time while this one is submitted.
+	 */
+	public void onDrawFrame(long time) {
+
+		// Clear view buffer.
+		mGL.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
+		mGL.glClear(BotzGL.GL_COLOR_BUFFER_BIT);
+
+		// If shader compiler not supported return immediately.
+		if (!mShaderCompilerSupport[0]) {
+			return;
+		}
+
+		// Disable unnecessary OpenGL flags.
+		mGL.glDisable(BotzGL.GL_DEPTH_TEST);
+		mGL.glDisable(BotzGL.GL_CULL_FACE);
+
+		if (mHudEnabled) {
+			mHud.addFrameTime(time);
+		}
+		updateResolutionScale(time);
+
+		BotzFrame frame;
+		synchronized (mFrameLock) {
+			if (mFrameReady != null) {
+				mFrameCurrent = mFrameReady;
+				mFrameReady = null;
+			}
+			// Without pipelining, or if there is nothing to draw yet, frame is
+			// built right here.
+			if (mWorker == null || mFrameCurrent == null) {
+				waitFrameBuilt();
+				frame = mFrameCurrent == mFrames[0] ? mFrames[1] : mFrames[0];
+				buildFrame(frame, time);
+				mFrameCurrent = frame;
+			} else if (!mFrameBuilding && !mFrameRequested) {
+				mFrameRequested = true;
+				mFrameRequestTime = time;
+				mFrameLock.notifyAll();
+			}
+			frame = mFrameCurrent;
+		}
+		drawFrame(frame);
+	}
+
+	/**
+	 * Called once surface size changes.
+	 */
+	public void onSurfaceChanged(int width, int height) {
+		mGL.glViewport(0, 0, width, height);
+
+		// Simulation state is not touched while a frame is being built.
+		// Frames built for previous size are dropped.
+		synchronized (mFrameLock) {
+			waitFrameBuilt();
+			mFrameCurrent = mFrameReady = null;
+			for (BotzFrame frame : mFrames) {
+				frame.mBulletsComplete = false;
+			}
+
+			mWidth = width;
+			mHeight = height;
+			BotzTrace trace = mTrace;
+			if (trace != null) {
+				trace.writeSurface(width, height);
+			}
+
+			// Initialize solver with particles and view rectangle.
+			float dx = (float) Math.max(mWidth, mHeight) / mHeight;
+			float dy = (float) Math.max(mWidth, mHeight) / mWidth;
+			mSolver.init(mArrParticles, -dx, dy, dx, -dy);
+
+			// Store view aspect ratio.
+			mAspectRatio[0] = 1f / dx;
+			mAspectRatio[1] = 1f / dy;
+
+			// Initialize ships to initial state.
+			for (int i = 0; i < mArrShips.size(); ++i) {
+				Ship ship = mArrShips.get(i);
+				ship.mEnergy = 1f;
+				ship.mVisible = true;
+				ship.mExplode = false;
+			}
+		}
+	}
+
+	/**
+	 * Called once OpenGL context has been created.
+	 * 
+	 * @return False if shader compiler is not supported.
+	 */
+	public boolean onSurfaceCreated() {
+		// Check if shader compiler is supported.
+		mGL.glGetBooleanv(BotzGL.GL_SHADER_COMPILER, mShaderCompilerSupport, 0);
+		if (!mShaderCompilerSupport[0]) {
+			return false;
+		}
+
+		// Point sprite size is limited by OpenGL implementation.
+		mGL.glGetFloatv(BotzGL.GL_ALIASED_POINT_SIZE_RANGE,
+				mPointSizeRange, 0);
+
+		// Create bullet VBO, previous one is lost with OpenGL context. So are
+		// spark VBO and offscreen framebuffer, which are created again once
+		// needed.
+		mGL.glGenBuffers(1, mBufferBulletsVbo, 0);
+		mBufferBulletsVboSize = 0;
+		mBufferSparksCreated = false;
+		mFramebuffer[0] = mFramebufferTexture[0] = 0;
+		mFramebufferWidth = mFramebufferHeight = 0;
+		mFramebufferSupported = true;
+		return true;
+	}
+
+	/**
+	 * Renders bullets on current FBO. Bullet paths are stored in VBO which is
+	 * updated only for bullets fired since previous frame, vertex shader
+	 * interpolates bullet positions from frame time. If points is true,
+	 * bullets are rendered as point sprites using first vertex of every
+	 * bullet.
+	 */
+	private void renderBullets(BotzShader shader, BotzFrame frame,
+			boolean points) {
+		int aPosition = shader.getHandle("aPosition");
+		int aColor = shader.getHandle("aColor");
+		int aParams = shader.getHandle("aParams");
+
+		mGL.glUniform1f(shader.getHandle("uLiveTime"), BULLET_LIVE_TIME / 1000f);
+		mGL.glUniform1f(shader.getHandle("uTime"),
+				(frame.mTime - frame.mBulletsTimeBase) / 1000f);
+		mGL.glUniform1f(shader.getHandle("uBulletRadius"), frame.mRadiusBullet);
+		if (points) {
+			float pointSize = frame.mRadiusBullet * frame.mPixelScale * 2;
+			mGL.glUniform1f(shader.getHandle("uPointSize"), pointSize);
+			mGL.glUniform1f(shader.getHandle("uBulletSmooth"), 2f / pointSize);
+		} else {
+			mGL.glUniform1f(shader.getHandle("uBulletSmooth"),
+					1f / (frame.mRadiusBullet * frame.mPixelScale));
+		}
+
+		mGL.glBindBuffer(BotzGL.GL_ARRAY_BUFFER, mBufferBulletsVbo[0]);
+
+		// Resize VBO to match frame buffer, which holds all bullets.
+		final int size = BULLET_VERTEX_COUNT * BULLET_VERTEX_SIZE;
+		FloatBuffer bullets = frame.mBufferBullets;
+		if (mBufferBulletsVboSize != bullets.capacity() * 4) {
+			mBufferBulletsVboSize = bullets.capacity() * 4;
+			mGL.glBufferData(BotzGL.GL_ARRAY_BUFFER, mBufferBulletsVboSize,
+					null, BotzGL.GL_DYNAMIC_DRAW);
+			bullets.position(0);
+			mGL.glBufferSubData(BotzGL.GL_ARRAY_BUFFER, 0, frame.mBulletCount
+					* size * 4, bullets);
+		}
+		// Upload bullets changed since frame uploaded previously.
+		else if (!frame.mUploaded
+				&& frame.mBulletsDirtyStart < frame.mBulletsDirtyEnd) {
+			bullets.position(frame.mBulletsDirtyStart * size);
+			mGL.glBufferSubData(BotzGL.GL_ARRAY_BUFFER,
+					frame.mBulletsDirtyStart * size * 4,
+					(frame.mBulletsDirtyEnd - frame.mBulletsDirtyStart) * size
+							* 4, bullets);
+		}
+		bullets.position(0);
+		frame.mUploaded = true;
+
+		// Point sprites step over whole bullet at once. Bullet color and
+		// primitive type are constant attribute values.
+		final int stride = BULLET_VERTEX_SIZE * 4
+				* (points ? BULLET_VERTEX_COUNT : 1);
+		mGL.glVertexAttribPointer(aPosition, 4, BotzGL.GL_FLOAT, false,
+				stride, 0);
+		mGL.glEnableVertexAttribArray(aPosition);
+		mGL.glVertexAttribPointer(aParams, 4, BotzGL.GL_FLOAT, false, stride,
+				4 * 4);
+		mGL.glEnableVertexAttribArray(aParams);
+		mGL.glDisableVertexAttribArray(aColor);
+		mGL.glVertexAttrib4f(aColor, COLOR_BULLET[0], COLOR_BULLET[1],
+				COLOR_BULLET[2], points ? TYPE_BULLET_POINT : TYPE_BULLET);
+
+		if (points) {
+			mGL.glDrawArrays(BotzGL.GL_POINTS, 0, frame.mBulletCount);
+		} else {
+			mGL.glDrawArrays(BotzGL.GL_TRIANGLES, 0, frame.mBulletCount
+					* BULLET_VERTEX_COUNT);
+		}
+		++mDrawCalls;
+
+		// Ships use client side vertex arrays.
+		mGL.glBindBuffer(BotzGL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Upscales offscreen framebuffer onto surface.
+	 */
+	private void renderCopy() {
+		mGL.glBindFramebuffer(BotzGL.GL_FRAMEBUFFER, 0);
+		mGL.glViewport(0, 0, mWidth, mHeight);
+		mShaderCopy.useProgram();
+		mGL.glUniform1i(mShaderCopy.getHandle("sTexture"), 0);
+		mGL.glActiveTexture(BotzGL.GL_TEXTURE0);
+		mGL.glBindTexture(BotzGL.GL_TEXTURE_2D, mFramebufferTexture[0]);
+		int aPosition = mShaderCopy.getHandle("aPosition");
+		mGL.glVertexAttribPointer(aPosition, 2, BotzGL.GL_BYTE, false, 0,
+				mBufferQuad);
+		mGL.glEnableVertexAttribArray(aPosition);
+		mGL.glDrawArrays(BotzGL.GL_TRIANGLE_STRIP, 0, 4);
+		++mDrawCalls;
+	}
+
+	/**
+	 * Renders ship borders, energies, outlines and explosions with one draw
+	 * call from ship stream written at build time.
+	 */
+	private void renderShips(BotzShader shader, BotzFrame frame) {
+		if (frame.mShipVertexCount == 0) {
+			return;
+		}
+		final int stride = BotzFrame.SHIP_VERTEX_SIZE * 4;
+		int aPosition = shader.getHandle("aPosition");
+		int aColor = shader.getHandle("aColor");
+		int aParams = shader.getHandle("aParams");
+		FloatBuffer ships = frame.mBufferShips;
+		ships.position(0);
+		mGL.glVertexAttribPointer(aPosition, 4, BotzGL.GL_FLOAT, false,
+				stride, ships);
+		ships.position(4);
+		mGL.glVertexAttribPointer(aColor, 4, BotzGL.GL_FLOAT, false, stride,
+				ships);
+		mGL.glEnableVertexAttribArray(aColor);
+		ships.position(8);
+		mGL.glVertexAttribPointer(aParams, 4, BotzGL.GL_FLOAT, false, stride,
+				ships);
+		ships.position(0);
+		mGL.glDrawArrays(BotzGL.GL_TRIANGLES, 0, frame.mShipVertexCount);
+		++mDrawCalls;
+	}
+
+	/**
+	 * Renders explosion sparks on top of scene as alpha blended points. Sparks
+	 * are stored in a ring buffer VBO, only sparks spawned since previous
+	 * frame are uploaded and vertex shader evaluates their motion and fade
+	 * from frame time. Expired sparks are clipped until their slots are
+	 * written over.
+	 */
+	private void renderSparks(BotzFrame frame) {
+		if (frame.mSparksDrawn == 0) {
+			return;
+		}
+		BotzShader shader = mShaderSpark;
+		shader.useProgram();
+		mGL.glUniformMatrix3fv(shader.getHandle("uViewM"), 1, false,
+				frame.mMatrixView, 0);
+		mGL.glUniform3fv(shader.getHandle("uColor"), 1, COLOR_EXPLODE, 0);
+		mGL.glUniform3fv(shader.getHandle("uColorHot"), 1, COLOR_SPARK, 0);
+		mGL.glUniform1f(shader.getHandle("uDrag"), SPARK_DRAG);
+		mGL.glUniform1f(shader.getHandle("uLiveTime"), SPARK_LIVE_TIME / 1000f);
+		mGL.glUniform1f(shader.getHandle("uPointSize"),
+				Math.min(frame.mSparkSize, mPointSizeRange[1]));
+		mGL.glUniform1f(shader.getHandle("uTime"),
+				(frame.mTime - frame.mSparksTimeBase) / 1000f);
+
+		// Ring buffer is zeroed on creation, zero brightness hides slots
+		// never written into.
+		final int size = SPARK_VERTEX_SIZE * 4;
+		if (!mBufferSparksCreated) {
+			mGL.glGenBuffers(1, mBufferSparksVbo, 0);
+			mGL.glBindBuffer(BotzGL.GL_ARRAY_BUFFER, mBufferSparksVbo[0]);
+			mGL.glBufferData(BotzGL.GL_ARRAY_BUFFER, SPARK_CAPACITY * size,
+					ByteBuffer.allocateDirect(SPARK_CAPACITY * size),
+					BotzGL.GL_DYNAMIC_DRAW);
+			mBufferSparksCreated = true;
+		} else {
+			mGL.glBindBuffer(BotzGL.GL_ARRAY_BUFFER, mBufferSparksVbo[0]);
+		}
+		// Sparks spawned are uploaded in two parts if they wrap around ring
+		// end.
+		if (!frame.mSparksUploaded && frame.mSparkCount > 0) {
+			FloatBuffer sparks = frame.mBufferSparks;
+			int count = Math.min(frame.mSparkCount, SPARK_CAPACITY
+					- frame.mSparksStart);
+			sparks.position(0);
+			mGL.glBufferSubData(BotzGL.GL_ARRAY_BUFFER, frame.mSparksStart
+					* size, count * size, sparks);
+			if (count < frame.mSparkCount) {
+				sparks.position(count * SPARK_VERTEX_SIZE);
+				mGL.glBufferSubData(BotzGL.GL_ARRAY_BUFFER, 0,
+						(frame.mSparkCount - count) * size, sparks);
+			}
+			sparks.position(0);
+		}
+		frame.mSparksUploaded = true;
+
+		int aPosition = shader.getHandle("aPosition");
+		int aParams = shader.getHandle("aParams");
+		mGL.glVertexAttribPointer(aPosition, 4, BotzGL.GL_FLOAT, false, size,
+				0);
+		mGL.glEnableVertexAttribArray(aPosition);
+		mGL.glVertexAttribPointer(aParams, 2, BotzGL.GL_FLOAT, false, size,
+				4 * 4);
+		mGL.glEnableVertexAttribArray(aParams);
+
+		if (frame.mCircleMode != CIRCLES_SMOOTH) {
+			mGL.glEnable(BotzGL.GL_BLEND);
+			mGL.glBlendFunc(BotzGL.GL_SRC_ALPHA,
+					BotzGL.GL_ONE_MINUS_SRC_ALPHA);
+		}
+		mGL.glDrawArrays(BotzGL.GL_POINTS, 0, frame.mSparksDrawn);
+		++mDrawCalls;
+		if (frame.mCircleMode != CIRCLES_SMOOTH) {
+			mGL.glDisable(BotzGL.GL_BLEND);
+		}
+		mGL.glBindBuffer(BotzGL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Worker thread loop, builds frames requested by rendering thread until
+	 * worker is replaced or pipelining is disabled.
+	 */
+	private void runWorker() {
+		Thread thread = Thread.currentThread();
+		while (true) {
+			BotzFrame frame;
+			long time;
+			synchronized (mFrameLock) {
+				while (mWorker == thread && !mFrameRequested) {
+					try {
+						mFrameLock.wait();
+					} catch (InterruptedException ex) {
+					}
+				}
+				if (mWorker != thread) {
+					return;
+				}
+				frame = mFrameCurrent == mFrames[0] ? mFrames[1] : mFrames[0];
+				time = mFrameRequestTime;
+				mFrameRequested = false;
+				mFrameBuilding = true;
+			}
+			try {
+				buildFrame(frame, time);
+			} finally {
+				synchronized (mFrameLock) {
+					mFrameBuilding = false;
+					mFrameReady = frame;
+					mFrameLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets circle rendering mode, either CIRCLES_DISCARD or CIRCLES_SMOOTH.
+	 */
+	public void setCircleMode(int mode) {
+		mCircleMode = mode;
+	}
+
+	/**
+	 * Sets ship and bullet counts. Entity pools, active sets, solver storage
+	 * and frame buffers are grown here if needed, thread building frames
+	 * only moves entities between pools and active sets once new counts are
+	 * taken into use on next frame. Frame path iterates active sets by
+	 * index, growing their capacity here does not disturb it.
+	 */
+	public synchronized void setEntityCounts(int shipCount, int bulletCount) {
+		while (mPoolShips.size() < shipCount) {
+			mPoolShips.add(new Ship(new BotzParticle()));
+		}
+		while (mPoolBullets.size() < bulletCount) {
+			mPoolBullets.add(new Bullet());
+		}
+		mArrShips.ensureCapacity(mPoolShips.size());
+		mArrParticles.ensureCapacity(mPoolShips.size());
+		mArrBullets.ensureCapacity(mPoolBullets.size());
+		mSolver.reserve(mPoolShips.size(), COLLISION_EVENTS_PER_SHIP
+				* mPoolShips.size() + mPoolBullets.size());
+		for (int i = 0; i < mFrames.length; ++i) {
+			mFrames[i].reserve(SHIP_VERTEX_MAX * mPoolShips.size(),
+					BULLET_VERTEX_COUNT * BULLET_VERTEX_SIZE
+							* mPoolBullets.size());
+		}
+		mEntityCountShips = shipCount;
+		mEntityCountBullets = bulletCount;
+		mEntityCountsChanged = true;
+	}
+
+	/**
+	 * Sets solver force mode. Scenes with more than PAIRWISE_SHIP_COUNT_MAX
+	 * ships use Barnes-Hut regardless.
+	 */
+	public void setForceMode(int mode) {
+		mForceMode = mode;
+	}
+
+	/**
+	 * Marks bullet with given index to be uploaded into bullet VBO.
+	 */
+	private void setBulletDirty(int index) {
+		if (mBulletsDirtyStart == mBulletsDirtyEnd) {
+			mBulletsDirtyStart = index;
+			mBulletsDirtyEnd = index + 1;
+		} else {
+			mBulletsDirtyStart = Math.min(mBulletsDirtyStart, index);
+			mBulletsDirtyEnd = Math.max(mBulletsDirtyEnd, index + 1);
+		}
+	}
+
+	/**
+	 * Sets number of garbage collections shown in performance overlay.
+	 */
+	public void setGcCount(int count) {
+		mHud.setGcCount(count);
+	}
+
+	/**
+	 * Shows or hides performance overlay.
+	 */
+	public void setHudEnabled(boolean enabled) {
+		mHudEnabled = enabled;
+	}
+
+	/**
+	 * Enables or disables pipelined frame building. Once enabled, a worker
+	 * thread builds next frame while current one is drawn, which adds one
+	 * frame of latency. Disabling stops worker thread and should be done
+	 * once scene is not rendered anymore.
+	 */
+	public void setPipelined(boolean pipelined) {
+		synchronized (mFrameLock) {
+			if (pipelined && mWorker == null) {
+				mWorker = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						runWorker();
+					}
+				}, "BotzScene");
+				mWorker.setDaemon(true);
+				mWorker.start();
+			} else if (!pipelined && mWorker != null) {
+				mWorker = null;
+				mFrameRequested = false;
+				mFrameLock.notifyAll();
+				waitFrameBuilt();
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables adaptive resolution. Adaptive resolution lowers
+	 * resolution scale, down to half resolution, while frames take longer
+	 * than display refresh allows and raises it back up to scale set with
+	 * setResolutionScale once they do not.
+	 */
+	public void setResolutionAdaptive(boolean adaptive) {
+		mResolutionAdaptive = adaptive;
+	}
+
+	/**
+	 * Sets resolution scale in range [.5, 1] scene is rendered at. Frames
+	 * below full resolution are rendered offscreen and upscaled onto surface,
+	 * which trades sharpness for fill rate.
+	 */
+	public void setResolutionScale(float scale) {
+		mResolutionScale = Math.max(RESOLUTION_SCALE_MIN, Math.min(1f, scale));
+	}
+
+	/**
+	 * Seeds random number generator used by scene and solver. Together with
+	 * given frame times this makes scene deterministic, seed should be set
+	 * before onSurfaceChanged places particles.
+	 */
+	public void setSeed(long seed) {
+		mRandom.setSeed(seed);
+		mRandomSparks.setSeed(seed);
+	}
+
+	/**
+	 * Sets stress scenario preset. Presets replace ship and bullet counts
+	 * with large ones, which run Barnes-Hut forces, STRESS_NONE restores
+	 * defaults.
+	 */
+	public void setStressPreset(int preset) {
+		int shipCount = STRESS_SHIP_COUNTS[preset];
+		setEntityCounts(shipCount, shipCount * DEFAULT_BULLET_COUNT
+				/ DEFAULT_SHIP_COUNT);
+	}
+
+	/**
+	 * Spawns explosion sparks around given particle into frame spark buffer
+	 * and advances spark ring. Sparks are never updated after this, once
+	 * ring wraps around oldest sparks, which have expired by then unless
+	 * there are lots of explosions, are written over.
+	 */
+	private void spawnSparks(BotzFrame frame, BotzParticle p, long time) {
+		int count = Math.min(SPARK_COUNT, SPARK_CAPACITY - frame.mSparkCount);
+		float spawnTime = (time - mSparksTimeBase) / 1000f;
+		// Distance travelled approaches speed divided by drag.
+		float speed = mRadiusShip * SPARK_SPREAD * SPARK_DRAG;
+		FloatBuffer buf = frame.mBufferSparks;
+		buf.position(frame.mSparkCount * SPARK_VERTEX_SIZE);
+		for (int i = 0; i < count; ++i) {
+			double angle = mRandomSparks.nextDouble() * 2 * Math.PI;
+			float v = speed * (.2f + .8f * mRandomSparks.nextFloat());
+			buf.put(p.mPosition[0]).put(p.mPosition[1]);
+			buf.put((float) Math.cos(angle) * v);
+			buf.put((float) Math.sin(angle) * v);
+			buf.put(spawnTime).put(.5f + .5f * mRandomSparks.nextFloat());
+		}
+		buf.position(0);
+		frame.mSparkCount += count;
+		mSparksHead = (mSparksHead + count) % SPARK_CAPACITY;
+		mSparksUsed = Math.min(SPARK_CAPACITY, mSparksUsed + count);
+		mSparksTimeLast = time;
+	}
+
+	/**
+	 * Starts recording simulation inputs into given stream. Random number
+	 * generator is seeded with given seed, which is written into trace too.
+	 * Should be called before first onSurfaceChanged, replaying trace on a
+	 * new scene then gives same state step by step. Trace closes itself
+	 * after BotzTrace.MAX_FRAMES frames, write errors are logged.
+	 */
+	public void startTrace(OutputStream out, long seed) {
+		stopTrace();
+		setSeed(seed);
+		mTrace = new BotzTrace(out, seed, mLog);
+		// Current force mode is written on next frame.
+		mForceModeApplied = -1;
+	}
+
+	/**
+	 * Stops trace recording and closes trace stream.
+	 */
+	public void stopTrace() {
+		BotzTrace trace = mTrace;
+		mTrace = null;
+		if (trace != null) {
+			trace.close();
+		}
+	}
+
+	/**
+	 * Private bullet info holder class.
+	 */
+	private final class Bullet {
+		public final BotzParticle mParticle = new BotzParticle();
+		public final float[] mPosEnd = new float[2];
+		public final float[] mPosStart = new float[2];
+		public long mShootTime;
+	}
+
+	/**
+	 * Updates resolution scale next frame is built for. In adaptive mode
+	 * average interval between frames given at given times is compared
+	 * against display refresh time, pauses in rendering are ignored.
+	 */
+	private void updateResolutionScale(long time) {
+		long interval = time - mResolutionTimeLast;
+		mResolutionTimeLast = time;
+		float scale = mResolutionScale;
+		if (!mResolutionAdaptive) {
+			mResolutionScaleApplied = scale;
+			mResolutionFrames = mResolutionPeriods = 0;
+			mResolutionTimeSum = 0;
+			return;
+		}
+		if (interval <= 0 || interval > RESOLUTION_PAUSE_TIME) {
+			return;
+		}
+		mResolutionTimeSum += interval;
+		if (++mResolutionFrames < RESOLUTION_FRAMES) {
+			return;
+		}
+		float frameTime = (float) mResolutionTimeSum / mResolutionFrames;
+		mResolutionFrames = 0;
+		mResolutionTimeSum = 0;
+
+		float applied = Math.min(mResolutionScaleApplied, scale);
+		if (frameTime > RESOLUTION_FRAME_TIME * 1.2f) {
+			applied -= RESOLUTION_SCALE_STEP;
+			mResolutionPeriods = 0;
+		} else if (frameTime < RESOLUTION_FRAME_TIME * 1.05f
+				&& ++mResolutionPeriods >= RESOLUTION_RAISE_PERIODS) {
+			applied += RESOLUTION_SCALE_STEP;
+			mResolutionPeriods = 0;
+		}
+		mResolutionScaleApplied = Math.max(RESOLUTION_SCALE_MIN,
+				Math.min(scale, applied));
+	}
+
+	/**
+	 * Waits until worker thread has finished building frame. Should be
+	 * called holding frame lock.
+	 */
+	private void waitFrameBuilt() {
+		while (mFrameBuilding) {
+			try {
+				mFrameLock.wait();
+			} catch (InterruptedException ex) {
+			}
+		}
+	}
+
+	/**
+	 * Writes bullets into frame bullet buffer. Frame buffer is kept as a
+	 * copy of all bullets, so bullets changed since this frame was built
+	 * previously are written, which covers changes for frame built in
+	 * between too. Same range is uploaded into VBO once frame is drawn.
+	 */
+	private void writeBullets(BotzFrame frame) {
+		final int size = BULLET_VERTEX_COUNT * BULLET_VERTEX_SIZE;
+		int start = mBulletsDirtyStart, end = mBulletsDirtyEnd;
+		if (start == end) {
+			start = mBulletsDirtyPrevStart;
+			end = mBulletsDirtyPrevEnd;
+		} else if (mBulletsDirtyPrevStart < mBulletsDirtyPrevEnd) {
+			start = Math.min(start, mBulletsDirtyPrevStart);
+			end = Math.max(end, mBulletsDirtyPrevEnd);
+		}
+		mBulletsDirtyPrevStart = mBulletsDirtyStart;
+		mBulletsDirtyPrevEnd = mBulletsDirtyEnd;
+		mBulletsDirtyStart = mBulletsDirtyEnd = 0;
+
+		if (!frame.mBulletsComplete) {
+			start = 0;
+			end = mArrBullets.size();
+			frame.mBulletsComplete = true;
+		}
+		// Bullet count may have dropped since previous frame.
+		end = Math.min(end, mArrBullets.size());
+		start = Math.min(start, end);
+
+		for (int i = start; i < end; ++i) {
+			Bullet b = mArrBullets.get(i);
+			float shootTime = (b.mShootTime - mBulletsTimeBase) / 1000f;
+			float visible = b.mParticle.mEnabled ? 1f : 0f;
+			FloatBuffer buf = frame.mBufferBullets;
+			buf.position(i * size);
+			for (int j = 0; j < BULLET_VERTEX_COUNT; ++j) {
+				buf.put(b.mPosStart[0]).put(b.mPosStart[1]);
+				buf.put(BotzFrame.QUAD[j * 2]).put(BotzFrame.QUAD[j * 2 + 1]);
+				buf.put(b.mPosEnd[0]).put(b.mPosEnd[1]);
+				buf.put(shootTime).put(visible);
+			}
+		}
+		frame.mBufferBullets.position(0);
+		frame.mBulletCount = mArrBullets.size();
+		frame.mBulletsDirtyStart = start;
+		frame.mBulletsDirtyEnd = end;
+		frame.mBulletsTimeBase = mBulletsTimeBase;
+		frame.mRadiusBullet = mRadiusBullet;
+		frame.mUploaded = false;
+	}
+
+	/**
+	 * Writes ship borders, energies, outlines and explosions into frame ship
+	 * stream. Ship geometry is written in view coordinates, in the order
+	 * separate passes used to render it.
+	 */
+	private void writeShips(BotzFrame frame, long time) {
+		frame.mBufferShips.clear();
+
+		// Borders show for certain amount of time only.
+		float smooth = frame.mCircleMode == CIRCLES_SMOOTH ? 1f / (mRadiusShip
+				* frame.mPixelScale) : 0;
+		for (int s = 0; s < mArrShips.size(); ++s) {
+			Ship ship = mArrShips.get(s);
+			BotzParticle p = ship.mParticle;
+			float ct = (time - ship.mCollisionTime) / 200f;
+			if (ship.mVisible && ct < 1f) {
+				for (int i = 0; i < 3; ++i) {
+					mColor[i] = COLOR_BORDER[i]
+							+ (COLOR_BG[i] - COLOR_BORDER[i]) * ct;
+				}
+				frame.putQuad(p.mPosition[0], p.mPosition[1], mRadiusShip,
+						mRadiusShip, mColor, TYPE_CIRCLE, .85f, 1f, smooth, 0);
+			}
+		}
+
+		// Energy shows only for certain amount of time.
+		for (int s = 0; s < mArrShips.size(); ++s) {
+			Ship ship = mArrShips.get(s);
+			BotzParticle p = ship.mParticle;
+			float ct = (time - ship.mCollisionTime) / 400f;
+			if (ship.mVisible && ct < 1f) {
+				for (int i = 0; i < 3; ++i) {
+					mColor[i] = COLOR_ENERGY1[i]
+							+ (COLOR_BG[i] - COLOR_ENERGY1[i]) * ct;
+					mColor2[i] = COLOR_ENERGY2[i]
+							+ (COLOR_BG[i] - COLOR_ENERGY2[i]) * ct;
+				}
+				frame.putQuad(p.mPosition[0], p.mPosition[1] - .9f * mRadiusShip,
+						mRadiusShip, .1f * mRadiusShip, mColor, TYPE_ENERGY,
+						ship.mEnergy, mColor2[0], mColor2[1], mColor2[2]);
+			}
+		}
+
+		// Ship outlines point towards velocity.
+		for (int s = 0; s < mArrShips.size(); ++s) {
+			Ship ship = mArrShips.get(s);
+			if (!ship.mVisible)
+				continue;
+			BotzParticle p = ship.mParticle;
+			float len2 = p.mVelocity[0] * p.mVelocity[0] + p.mVelocity[1]
+					* p.mVelocity[1];
+			float len = (float) Math.sqrt(len2);
+			float cos = len > 0 ? p.mVelocity[1] / len * mRadiusShip
+					: mRadiusShip;
+			float sin = len > 0 ? -p.mVelocity[0] / len * mRadiusShip : 0;
+			for (int i = 0; i < 6; i += 2) {
+				int j = (i + 2) % 6;
+				frame.putLine(p.mPosition[0] + cos * SHIP_LINES[i] - sin
+						* SHIP_LINES[i + 1], p.mPosition[1] + sin
+						* SHIP_LINES[i] + cos * SHIP_LINES[i + 1],
+						p.mPosition[0] + cos * SHIP_LINES[j] - sin
+								* SHIP_LINES[j + 1], p.mPosition[1] + sin
+								* SHIP_LINES[j] + cos * SHIP_LINES[j + 1],
+						COLOR_SHIP, TYPE_LINE);
+			}
+		}
+
+		// Explosion lasts only for certain amount of time.
+		smooth /= 1.5f;
+		for (int s = 0; s < mArrShips.size(); ++s) {
+			Ship ship = mArrShips.get(s);
+			if (!ship.mVisible || !ship.mExplode)
+				continue;
+			BotzParticle p = ship.mParticle;
+			float ct = (time - ship.mExplodeTime) / 800f;
+			if (ct < 1f) {
+				frame.putQuad(p.mPosition[0], p.mPosition[1], mRadiusShip * 1.5f,
+						mRadiusShip * 1.5f, COLOR_EXPLODE, TYPE_CIRCLE, 0, ct,
+						smooth, 0);
+			}
+			// Hide ship after explosion is done.
+			else {
+				ship.mVisible = false;
+			}
+		}
+
+		frame.mShipVertexCount = frame.mBufferShips.position()
+				/ BotzFrame.SHIP_VERTEX_SIZE;
+	}
+
+	/**
+	 * Interface for loading shader sources by name, names match files under
+	 * res/raw without extension.
+	 */
+	public interface SourceLoader {
+		public String loadSource(String name) throws Exception;
+	}
+
+	/**
+	 * Private ship info holder class.
+	 */
+	private final class Ship {
+		// Time of latest collision, in milliseconds.
+		public long mCollisionTime;
+		public float mEnergy;
+		public boolean mExplode;
+		public long mExplodeTime;
+		public BotzParticle mParticle;
+		public boolean mVisible;
+
+		public Ship(BotzParticle particle) {
+			mParticle = particle;
+		}
+	}
+
+}
@@ -16,8 +16,16 @@
 
 package fi.harism.wallpaper.botz;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.content.SharedPreferences;
 import android.opengl.GLSurfaceView;
+import android.preference.PreferenceManager;
 import android.service.wallpaper.WallpaperService;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
@@ -31,9 +39,21 @@ public final class BotzService extends WallpaperService {
 	/**
 	 * Private wallpaper engine implementation.
 	 */
-	private final class WallpaperEngine extends Engine {
+	private final class WallpaperEngine extends Engine implements
+			BotzRenderer.Observer,
+			SharedPreferences.OnSharedPreferenceChangeListener {
+
+		// Number of quick taps toggling performance overlay and maximum time
+		// between them in milliseconds.
+		private static final int HUD_TAP_COUNT = 3;
+		private static final long HUD_TAP_TIME = 300;
+		// Trace files kept, oldest ones are deleted when new trace starts.
+		private static final int TRACE_FILES_KEPT = 5;
 
+		private SharedPreferences mPreferences;
 		private BotzRenderer mRenderer;
+		private int mTapCount;
+		private long mTapTime;
 		private float mTouchX, mTouchY;
 		private WallpaperSurfaceView mWallpaperSurfaceView;
 
@@ -46,6 +66,18 @@ public final class BotzService extends WallpaperService {
 			super.onCreate(surfaceHolder);
 			mWallpaperSurfaceView = new WallpaperSurfaceView();
 			mRenderer = new BotzRenderer(BotzService.this);
+			mRenderer.setObserver(this);
+			mPreferences = PreferenceManager
+					.getDefaultSharedPreferences(BotzService.this);
+			// Trace has to start before scene is set up for surface. Previews
+			// are not recorded.
+			if (!isPreview()
+					&& mPreferences.getBoolean(
+							getString(R.string.key_record_trace), false)) {
+				startTrace();
+			}
+			mPreferences.registerOnSharedPreferenceChangeListener(this);
+			onSharedPreferenceChanged(mPreferences, null);
 			mWallpaperSurfaceView.setEGLContextClientVersion(2);
 			mWallpaperSurfaceView.setRenderer(mRenderer);
 			mWallpaperSurfaceView
@@ -57,8 +89,110 @@ public final class BotzService extends WallpaperService {
 		@Override
 		public final void onDestroy() {
 			super.onDestroy();
+			mPreferences.unregisterOnSharedPreferenceChangeListener(this);
 			mWallpaperSurfaceView.onDestroy();
 			mWallpaperSurfaceView = null;
+			mRenderer.getScene().setPipelined(false);
+			mRenderer.getScene().stopTrace();
+		}
+
+		@Override
+		public void onIdleChanged(boolean idle) {
+			// Settled scene is rendered only on demand.
+			if (mWallpaperSurfaceView != null) {
+				mWallpaperSurfaceView
+						.setRenderMode(idle ? GLSurfaceView.RENDERMODE_WHEN_DIRTY
+								: GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+			}
+		}
+
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences prefs,
+				String key) {
+			int stressPreset = Integer.parseInt(prefs.getString(
+					getString(R.string.key_stress_preset), "0"));
+			if (stressPreset != BotzScene.STRESS_NONE) {
+				mRenderer.getScene().setStressPreset(stressPreset);
+			} else {
+				int shipCount = Integer.parseInt(prefs.getString(
+						getString(R.string.key_ship_count), "30"));
+				int bulletCount = Integer.parseInt(prefs.getString(
+						getString(R.string.key_bullet_count), "40"));
+				mRenderer.getScene().setEntityCounts(shipCount, bulletCount);
+			}
+
+			boolean smooth = prefs.getBoolean(
+					getString(R.string.key_smooth_circles), true);
+			mRenderer.getScene().setCircleMode(smooth ? BotzScene.CIRCLES_SMOOTH
+					: BotzScene.CIRCLES_DISCARD);
+			boolean barnesHut = prefs.getBoolean(
+					getString(R.string.key_barnes_hut), false);
+			mRenderer.getScene().setForceMode(barnesHut ? BotzSolver.FORCE_BARNES_HUT
+					: BotzSolver.FORCE_PAIRWISE);
+			// Zero resolution scale stands for adaptive resolution.
+			float renderScale = Float.parseFloat(prefs.getString(
+					getString(R.string.key_render_scale), "1"));
+			mRenderer.getScene().setResolutionAdaptive(renderScale == 0);
+			mRenderer.getScene().setResolutionScale(
+					renderScale == 0 ? 1f : renderScale);
+			mRenderer.setHudEnabled(prefs.getBoolean(
+					getString(R.string.key_show_hud), false));
+
+			// Settled scene is not redrawn on its own, draw changes right
+			// away. Frame drawn wakes rendering up if scene starts moving.
+			// Key is null only for initial call, before renderer is set.
+			if (key != null && mWallpaperSurfaceView != null) {
+				mWallpaperSurfaceView.requestRender();
+			}
+		}
+
+		/**
+		 * Deletes oldest trace files from given directory, leaving room for
+		 * one new trace.
+		 */
+		private void deleteTraces(File dir) {
+			String[] names = dir.list();
+			if (names == null) {
+				return;
+			}
+			// Trace names hold start time of fixed length, sorting them gives
+			// oldest first.
+			Arrays.sort(names);
+			int count = 0;
+			for (String name : names) {
+				if (name.startsWith("botz-") && name.endsWith(".trace")) {
+					++count;
+				}
+			}
+			for (int i = 0; i < names.length
+					&& count >= TRACE_FILES_KEPT; ++i) {
+				if (names[i].startsWith("botz-")
+						&& names[i].endsWith(".trace")) {
+					new File(dir, names[i]).delete();
+					--count;
+				}
+			}
+		}
+
+		/**
+		 * Starts recording scene trace into a new file under application
+		 * files directory, on external storage if available. Only
+		 * TRACE_FILES_KEPT newest traces are kept.
+		 */
+		private void startTrace() {
+			File dir = getExternalFilesDir(null);
+			if (dir == null) {
+				dir = getFilesDir();
+			}
+			deleteTraces(dir);
+			long time = System.currentTimeMillis();
+			File file = new File(dir, "botz-" + time + ".trace");
+			try {
+				mRenderer.getScene().startTrace(new FileOutputStream(file),
+						time);
+			} catch (IOException ex) {
+				Log.e("BotzService", "Trace not recorded", ex);
+			}
 		}
 
 		@Override
@@ -67,12 +201,28 @@ public final class BotzService extends WallpaperService {
 			case MotionEvent.ACTION_DOWN:
 				mTouchX = me.getX();
 				mTouchY = me.getY();
+
+				// Quick taps toggle performance overlay setting.
+				if (me.getEventTime() - mTapTime > HUD_TAP_TIME) {
+					mTapCount = 0;
+				}
+				mTapTime = me.getEventTime();
+				if (++mTapCount == HUD_TAP_COUNT) {
+					mTapCount = 0;
+					String key = getString(R.string.key_show_hud);
+					mPreferences.edit()
+							.putBoolean(key, !mPreferences.getBoolean(key, false))
+							.apply();
+				}
 				break;
 			case MotionEvent.ACTION_MOVE:
 				float dx = me.getX() - mTouchX;
 				float dy = mTouchY - me.getY();
 
-				mRenderer.addGravity(dx, dy);
+				mRenderer.getScene().addGravity(dx, dy);
+				// Touch wakes up scene, continue rendering it.
+				mWallpaperSurfaceView
+						.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
 
 				mTouchX = me.getX();
 				mTouchY = me.getY();
@@ -18,28 +18,37 @@ package fi.harism.wallpaper.botz;
 
 import java.util.HashMap;
 
-import android.opengl.GLES20;
-import android.util.Log;
-
 /**
  * Helper class for handling shaders.
  */
 public final class BotzShader {
 
+	// OpenGL implementation used for all calls.
+	private final BotzGL mGL;
 	// Shader program handles.
 	private int mIdProgram = 0;
 	private int mIdShaderFragment = 0;
 	private int mIdShaderVertex = 0;
+	// Log for handle lookup failures.
+	private final BotzLog mLog;
 	// HashMap for storing uniform/attribute handles.
 	private final HashMap<String, Integer> mShaderHandleMap = new HashMap<String, Integer>();
 
+	/**
+	 * Creates shader using given OpenGL implementation and log.
+	 */
+	public BotzShader(BotzGL gl, BotzLog log) {
+		mGL = gl;
+		mLog = log;
+	}
+
 	/**
 	 * Deletes program and shaders associated with it.
 	 */
 	public void deleteProgram() {
-		GLES20.glDeleteShader(mIdShaderFragment);
-		GLES20.glDeleteShader(mIdShaderVertex);
-		GLES20.glDeleteProgram(mIdProgram);
+		mGL.glDeleteShader(mIdShaderFragment);
+		mGL.glDeleteShader(mIdShaderVertex);
+		mGL.glDeleteProgram(mIdProgram);
 		mIdProgram = mIdShaderVertex = mIdShaderFragment = 0;
 	}
 
@@ -55,16 +64,16 @@ public final class BotzShader {
 		if (mShaderHandleMap.containsKey(name)) {
 			return mShaderHandleMap.get(name);
 		}
-		int handle = GLES20.glGetAttribLocation(mIdProgram, name);
+		int handle = mGL.glGetAttribLocation(mIdProgram, name);
 		if (handle == -1) {
-			handle = GLES20.glGetUniformLocation(mIdProgram, name);
+			handle = mGL.glGetUniformLocation(mIdProgram, name);
 		}
 		if (handle == -1) {
 			// One should never leave log messages but am not going to follow
 			// this rule. This line comes handy if you see repeating 'not found'
 			// messages on LogCat - usually for typos otherwise annoying to
 			// spot from shader code.
-			Log.d("GlslShader", "Could not get attrib location for " + name);
+			mLog.d("GlslShader", "Could not get attrib location for " + name);
 		} else {
 			mShaderHandleMap.put(name, handle);
 		}
@@ -97,15 +106,15 @@ public final class BotzShader {
 	 * @return id for compiled shader
 	 */
 	private int loadShader(int shaderType, String source) throws Exception {
-		int shader = GLES20.glCreateShader(shaderType);
+		int shader = mGL.glCreateShader(shaderType);
 		if (shader != 0) {
-			GLES20.glShaderSource(shader, source);
-			GLES20.glCompileShader(shader);
+			mGL.glShaderSource(shader, source);
+			mGL.glCompileShader(shader);
 			int[] compiled = new int[1];
-			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+			mGL.glGetShaderiv(shader, BotzGL.GL_COMPILE_STATUS, compiled, 0);
 			if (compiled[0] == 0) {
-				String error = GLES20.glGetShaderInfoLog(shader);
-				GLES20.glDeleteShader(shader);
+				String error = mGL.glGetShaderInfoLog(shader);
+				mGL.glDeleteShader(shader);
 				throw new Exception(error);
 			}
 		}
@@ -125,18 +134,18 @@ public final class BotzShader {
 	 */
 	public void setProgram(String vertexSource, String fragmentSource)
 			throws Exception {
-		mIdShaderVertex = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-		mIdShaderFragment = loadShader(GLES20.GL_FRAGMENT_SHADER,
+		mIdShaderVertex = loadShader(BotzGL.GL_VERTEX_SHADER, vertexSource);
+		mIdShaderFragment = loadShader(BotzGL.GL_FRAGMENT_SHADER,
 				fragmentSource);
-		int program = GLES20.glCreateProgram();
+		int program = mGL.glCreateProgram();
 		if (program != 0) {
-			GLES20.glAttachShader(program, mIdShaderVertex);
-			GLES20.glAttachShader(program, mIdShaderFragment);
-			GLES20.glLinkProgram(program);
+			mGL.glAttachShader(program, mIdShaderVertex);
+			mGL.glAttachShader(program, mIdShaderFragment);
+			mGL.glLinkProgram(program);
 			int[] linkStatus = new int[1];
-			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-			if (linkStatus[0] != GLES20.GL_TRUE) {
-				String error = GLES20.glGetProgramInfoLog(program);
+			mGL.glGetProgramiv(program, BotzGL.GL_LINK_STATUS, linkStatus, 0);
+			if (linkStatus[0] != BotzGL.GL_TRUE) {
+				String error = mGL.glGetProgramInfoLog(program);
 				deleteProgram();
 				throw new Exception(error);
 			}
@@ -149,7 +158,7 @@ public final class BotzShader {
 	 * Activates this shader program.
 	 */
 	public void useProgram() {
-		GLES20.glUseProgram(mIdProgram);
+		mGL.glUseProgram(mIdProgram);
 	}
 
 }
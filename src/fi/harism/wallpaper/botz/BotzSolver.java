@@ -16,71 +16,108 @@
 
 package fi.harism.wallpaper.botz;
 
+import java.util.Random;
 import java.util.Vector;
 
-import android.graphics.RectF;
-import android.os.SystemClock;
-
 /**
  * Particle solver class.
  */
 public final class BotzSolver {
 
+	// Force field is calculated over all particle pairs.
+	public static final int FORCE_PAIRWISE = 0;
+	// Force field is approximated using Barnes-Hut quadtree.
+	public static final int FORCE_BARNES_HUT = 1;
+
+	// Initial collision event buffer capacity.
+	private static final int COLLISION_CAPACITY = 256;
+	// Particle count above which collisions are found using quadtree.
+	private static final int COLLISION_TREE_MIN = 64;
+	// Fraction of particles out of Morton order which triggers reordering.
+	private static final float REORDER_DISORDER = .1f;
+	// How often, in animation steps, particle order is checked.
+	private static final int REORDER_INTERVAL = 30;
+	// Number of slow steps after which particle falls asleep.
+	private static final int SLEEP_STEPS = 60;
+	// Velocity below which particle is considered moving slowly.
+	private static final float SLEEP_VELOCITY = .02f;
+	// Maximum time step, keeps particles from jumping after long pauses.
+	private static final float TIME_STEP_MAX = .1f;
+
+	// Collision events found since buffer was cleared by its consumer.
+	private BotzCollisions mCollisions = new BotzCollisions(
+			COLLISION_CAPACITY);
+	private float mForceDist = .4f;
+	private int mForceMode = FORCE_PAIRWISE;
+	private final float[] mForceSum = new float[2];
+	private float mForceTheta = .5f;
 	private Vector<BotzParticle> mParticles;
+	private BotzQuadTree mQuadTree = new BotzQuadTree(0);
+	private Random mRandom = new Random();
+	private final float[] mQueryDist2 = new float[256];
+	private final int[] mQueryIndices = new int[256];
+	// True if quadtree holds particle positions after latest movement.
+	private boolean mQuadTreeValid;
+	// Morton order sorting buffers.
+	private int[] mReorderCodes = new int[0];
+	private int[] mReorderCodesTemp = new int[0];
+	private int[] mReorderIndices = new int[0];
+	private int[] mReorderIndicesTemp = new int[0];
+	private final int[] mReorderOffsets = new int[256];
+	private BotzParticle[] mReorderParticles = new BotzParticle[0];
+	// Storage allocated by reserve, taken into use by next animation step.
+	private BotzCollisions mReservedCollisions;
+	private int mReservedParticleCount;
+	private BotzQuadTree mReservedQuadTree;
+	private int[][] mReservedReorder;
+	private BotzParticle[] mReservedReorderParticles;
+	private int mStepCount;
+	// Number of enabled particles awake.
+	private int mAwakeCount;
 	private long mTimeLast;
-	private final RectF mViewRect = new RectF(-1, 1, 1, -1);
+	// View rectangle, top is greater than bottom.
+	private float mViewBottom = -1, mViewLeft = -1, mViewRight = 1,
+			mViewTop = 1;
 
 	/**
-	 * Animate method.
+	 * Animate method. Time is given in milliseconds, using any monotonic
+	 * clock.
 	 */
-	public void animate() {
+	public void animate(long timeCurrent) {
 
-		long timeCurrent = SystemClock.uptimeMillis();
 		if (mTimeLast == -1) {
 			mTimeLast = timeCurrent;
 		}
 		float time = (timeCurrent - mTimeLast) / 1000f;
+		time = Math.min(time, TIME_STEP_MAX);
 		mTimeLast = timeCurrent;
 
-		// Calculate force field changes.
-		for (int i = 0; i < mParticles.size(); ++i) {
-			BotzParticle p0 = mParticles.get(i);
-			if (!p0.mEnabled)
-				continue;
-
-			for (int j = 0; j < mParticles.size(); ++j) {
-				BotzParticle p1 = mParticles.get(j);
-				if (i == j || !p1.mEnabled)
-					continue;
+		takeReserved();
+		mQuadTreeValid = false;
 
-				float dx = p1.mPosition[0] - p0.mPosition[0];
-				float dy = p1.mPosition[1] - p0.mPosition[1];
-				float dist = (float) Math.sqrt(dx * dx + dy * dy);
-
-				final float DIST_FORCE = .4f;
-				if (dist < DIST_FORCE) {
-					float fx = (1f - dx / DIST_FORCE) * time * .3f;
-					float fy = (1f - dy / DIST_FORCE) * time * .3f;
+		// Keep particles in spatial order every once in a while.
+		if (++mStepCount % REORDER_INTERVAL == 0) {
+			reorder();
+		}
 
-					p0.mVelocity[0] += fx;
-					p0.mVelocity[1] += fy;
-					p1.mVelocity[0] -= fx;
-					p1.mVelocity[1] -= fy;
-				}
-			}
+		// Calculate force field changes.
+		if (mForceMode == FORCE_BARNES_HUT) {
+			animateForceBarnesHut(time);
+		} else {
+			animateForcePairwise(time);
 		}
 
 		// Avoid collisions with walls.
 		for (int i = 0; i < mParticles.size(); ++i) {
 			BotzParticle p = mParticles.get(i);
-			if (!p.mEnabled)
+			if (!p.mEnabled || p.mSleeping)
 				continue;
 
 			final float DIST_AVOID = .2f;
-			float distLeft = Math.abs(p.mPosition[0] - mViewRect.left);
-			float distRight = Math.abs(p.mPosition[0] - mViewRect.right);
-			float distTop = Math.abs(p.mPosition[1] - mViewRect.top);
-			float distBottom = Math.abs(p.mPosition[1] - mViewRect.bottom);
+			float distLeft = Math.abs(p.mPosition[0] - mViewLeft);
+			float distRight = Math.abs(p.mPosition[0] - mViewRight);
+			float distTop = Math.abs(p.mPosition[1] - mViewTop);
+			float distBottom = Math.abs(p.mPosition[1] - mViewBottom);
 			if (distLeft < DIST_AVOID)
 				p.mVelocity[0] += (1f - distLeft / DIST_AVOID) * time;
 			if (distRight < DIST_AVOID)
@@ -93,76 +130,196 @@ public final class BotzSolver {
 		}
 
 		// Move particles and do bounds check.
-		for (BotzParticle p : mParticles) {
-			if (!p.mEnabled)
+		for (int i = 0; i < mParticles.size(); ++i) {
+			BotzParticle p = mParticles.get(i);
+			if (!p.mEnabled || p.mSleeping)
 				continue;
 
 			p.mPosition[0] += p.mVelocity[0] * time;
 			p.mPosition[1] += p.mVelocity[1] * time;
 
-			if (p.mPosition[0] < mViewRect.left) {
-				p.mPosition[0] = mViewRect.left;
+			if (p.mPosition[0] < mViewLeft) {
+				p.mPosition[0] = mViewLeft;
+				mCollisions.add(BotzCollisions.TYPE_SHIP_WALL, p.mId,
+						BotzCollisions.WALL_LEFT);
 				p.mVelocity[0] = -p.mVelocity[0] * .5f;
-				p.mCollisionTime = timeCurrent;
 			}
-			if (p.mPosition[0] > mViewRect.right) {
-				p.mPosition[0] = mViewRect.right;
+			if (p.mPosition[0] > mViewRight) {
+				p.mPosition[0] = mViewRight;
+				mCollisions.add(BotzCollisions.TYPE_SHIP_WALL, p.mId,
+						BotzCollisions.WALL_RIGHT);
 				p.mVelocity[0] = -p.mVelocity[0] * .5f;
-				p.mCollisionTime = timeCurrent;
 			}
-			if (p.mPosition[1] > mViewRect.top) {
-				p.mPosition[1] = mViewRect.top;
+			if (p.mPosition[1] > mViewTop) {
+				p.mPosition[1] = mViewTop;
+				mCollisions.add(BotzCollisions.TYPE_SHIP_WALL, p.mId,
+						BotzCollisions.WALL_TOP);
 				p.mVelocity[1] = -p.mVelocity[1] * .5f;
-				p.mCollisionTime = timeCurrent;
 			}
-			if (p.mPosition[1] < mViewRect.bottom) {
-				p.mPosition[1] = mViewRect.bottom;
+			if (p.mPosition[1] < mViewBottom) {
+				p.mPosition[1] = mViewBottom;
+				mCollisions.add(BotzCollisions.TYPE_SHIP_WALL, p.mId,
+						BotzCollisions.WALL_BOTTOM);
 				p.mVelocity[1] = -p.mVelocity[1] * .5f;
-				p.mCollisionTime = timeCurrent;
 			}
 		}
 
-		// Finally apply collision detection.
+		// Finally apply collision detection. Large particle counts use
+		// quadtree for finding collision candidates.
+		if (mParticles.size() > COLLISION_TREE_MIN) {
+			mQuadTree.build(mParticles);
+			mQuadTreeValid = true;
+			float radiusMax = 0;
+			for (int i = 0; i < mParticles.size(); ++i) {
+				radiusMax = Math.max(radiusMax, mParticles.get(i).mRadius);
+			}
+			for (int i = 0; i < mParticles.size(); ++i) {
+				BotzParticle p0 = mParticles.get(i);
+				if (!p0.mEnabled)
+					continue;
+
+				int count = mQuadTree.queryRadius(p0.mPosition[0],
+						p0.mPosition[1], p0.mRadius + radiusMax, mQueryIndices);
+				for (int k = 0; k < count; ++k) {
+					int j = mQueryIndices[k];
+					if (j > i) {
+						collideResolve(p0, mParticles.get(j));
+					}
+				}
+			}
+		} else {
+			for (int i = 0; i < mParticles.size(); ++i) {
+				BotzParticle p0 = mParticles.get(i);
+				if (!p0.mEnabled)
+					continue;
+
+				for (int j = i + 1; j < mParticles.size(); ++j) {
+					collideResolve(p0, mParticles.get(j));
+				}
+			}
+		}
+
+		// Put particles which have been moving slowly long enough asleep.
+		mAwakeCount = 0;
+		for (int i = 0; i < mParticles.size(); ++i) {
+			BotzParticle p = mParticles.get(i);
+			if (!p.mEnabled)
+				continue;
+
+			if (!p.mSleeping) {
+				float vx = p.mVelocity[0], vy = p.mVelocity[1];
+				if (vx * vx + vy * vy < SLEEP_VELOCITY * SLEEP_VELOCITY) {
+					p.mSleeping = ++p.mSleepSteps >= SLEEP_STEPS;
+				} else {
+					p.mSleepSteps = 0;
+				}
+			}
+			if (!p.mSleeping) {
+				++mAwakeCount;
+			}
+		}
+	}
+
+	/**
+	 * Calculates force field changes using Barnes-Hut quadtree. Pairwise
+	 * force is applied to both particles of a pair and its constant part
+	 * cancels out, leaving a net change of -.6 * time * (p1 - p0) / dist for
+	 * every particle p1 within force distance. This sum is linear in particle
+	 * positions and can be aggregated using node centres of mass.
+	 */
+	private void animateForceBarnesHut(float time) {
+		mQuadTree.build(mParticles);
+		final float scale = -.6f * time / mForceDist;
+		for (int i = 0; i < mParticles.size(); ++i) {
+			BotzParticle p = mParticles.get(i);
+			if (!p.mEnabled || p.mSleeping)
+				continue;
+
+			mQuadTree.sumOffsets(p.mPosition[0], p.mPosition[1], mForceDist,
+					mForceTheta, mForceSum);
+			p.mVelocity[0] += mForceSum[0] * scale;
+			p.mVelocity[1] += mForceSum[1] * scale;
+		}
+	}
+
+	/**
+	 * Calculates force field changes over all particle pairs. Sleeping
+	 * particles take part as force sources but their velocity is left
+	 * untouched.
+	 */
+	private void animateForcePairwise(float time) {
+		final float forceDist2 = mForceDist * mForceDist;
 		for (int i = 0; i < mParticles.size(); ++i) {
 			BotzParticle p0 = mParticles.get(i);
 			if (!p0.mEnabled)
 				continue;
 
-			for (int j = i + 1; j < mParticles.size(); ++j) {
+			for (int j = 0; j < mParticles.size(); ++j) {
 				BotzParticle p1 = mParticles.get(j);
 				if (i == j || !p1.mEnabled)
 					continue;
 
-				if (collide(p0, p1)) {
-					float dx = p0.mPosition[0] - p1.mPosition[0];
-					float dy = p0.mPosition[1] - p1.mPosition[1];
-					float dist = (float) Math.sqrt(dx * dx + dy * dy);
+				// Squared distances are compared, square root is not needed.
+				float dx = p1.mPosition[0] - p0.mPosition[0];
+				float dy = p1.mPosition[1] - p0.mPosition[1];
+				if (dx * dx + dy * dy < forceDist2) {
+					float fx = (1f - dx / mForceDist) * time * .3f;
+					float fy = (1f - dy / mForceDist) * time * .3f;
+
+					if (!p0.mSleeping) {
+						p0.mVelocity[0] += fx;
+						p0.mVelocity[1] += fy;
+					}
+					if (!p1.mSleeping) {
+						p1.mVelocity[0] -= fx;
+						p1.mVelocity[1] -= fy;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves collision between two particles, if any.
+	 */
+	private void collideResolve(BotzParticle p0, BotzParticle p1) {
+		if (!p1.mEnabled)
+			return;
+		// Settled particles do not collide with each other.
+		if (p0.mSleeping && p1.mSleeping)
+			return;
 
-					float nx = dx / dist;
-					float ny = dy / dist;
+		if (collide(p0, p1)) {
+			// Collision with awake particle wakes up sleeping one.
+			wake(p0);
+			wake(p1);
 
-					float x1 = nx * p0.mVelocity[0] + ny * p0.mVelocity[1];
-					float x2 = -nx * p1.mVelocity[0] - ny * p1.mVelocity[1];
+			float dx = p0.mPosition[0] - p1.mPosition[0];
+			float dy = p0.mPosition[1] - p1.mPosition[1];
+			float dist = (float) Math.sqrt(dx * dx + dy * dy);
 
-					float vx1 = nx * x1;
-					float vy1 = ny * x1;
-					float vx2 = -nx * x2;
-					float vy2 = -ny * x2;
+			float nx = dx / dist;
+			float ny = dy / dist;
 
-					p0.mVelocity[0] = vx2 + p0.mVelocity[0] - vx1;
-					p0.mVelocity[1] = vy2 + p0.mVelocity[1] - vy1;
+			float x1 = nx * p0.mVelocity[0] + ny * p0.mVelocity[1];
+			float x2 = -nx * p1.mVelocity[0] - ny * p1.mVelocity[1];
 
-					p1.mVelocity[0] = vx1 + p1.mVelocity[0] - vx2;
-					p1.mVelocity[1] = vy1 + p1.mVelocity[1] - vy2;
+			float vx1 = nx * x1;
+			float vy1 = ny * x1;
+			float vx2 = -nx * x2;
+			float vy2 = -ny * x2;
 
-					float dt = (p0.mRadius + p1.mRadius + .0001f) / dist;
-					p1.mPosition[0] = p0.mPosition[0] - dx * dt;
-					p1.mPosition[1] = p0.mPosition[1] - dy * dt;
+			p0.mVelocity[0] = vx2 + p0.mVelocity[0] - vx1;
+			p0.mVelocity[1] = vy2 + p0.mVelocity[1] - vy1;
 
-					p0.mCollisionTime = timeCurrent;
-					p1.mCollisionTime = timeCurrent;
-				}
-			}
+			p1.mVelocity[0] = vx1 + p1.mVelocity[0] - vx2;
+			p1.mVelocity[1] = vy1 + p1.mVelocity[1] - vy2;
+
+			float dt = (p0.mRadius + p1.mRadius + .0001f) / dist;
+			p1.mPosition[0] = p0.mPosition[0] - dx * dt;
+			p1.mPosition[1] = p0.mPosition[1] - dy * dt;
+
+			mCollisions.add(BotzCollisions.TYPE_SHIP_SHIP, p0.mId, p1.mId);
 		}
 	}
 
@@ -176,30 +333,309 @@ public final class BotzSolver {
 		return dx * dx + dy * dy < r * r;
 	}
 
+	/**
+	 * Returns buffer solver writes collision events into. Events are added
+	 * on every animation step and consumer is expected to clear buffer once
+	 * it has handled them.
+	 */
+	public BotzCollisions getCollisions() {
+		return mCollisions;
+	}
+
+	/**
+	 * Returns current force mode.
+	 */
+	public int getForceMode() {
+		return mForceMode;
+	}
+
+	/**
+	 * Places given particle randomly within view rectangle and gives it a
+	 * random velocity.
+	 */
+	public void initParticle(BotzParticle p) {
+		p.mPosition[0] = rand(mViewLeft, mViewRight);
+		p.mPosition[1] = rand(mViewBottom, mViewTop);
+		p.mVelocity[0] = rand(-.5f, .5f);
+		p.mVelocity[1] = rand(-.5f, .5f);
+		p.mEnabled = true;
+		p.mSleeping = false;
+		p.mSleepSteps = 0;
+	}
+
+	/**
+	 * Returns true if all enabled particles are sleeping.
+	 */
+	public boolean isSleeping() {
+		return mAwakeCount == 0;
+	}
+
 	/**
 	 * Initialize method.
 	 */
-	public void init(Vector<BotzParticle> particles, RectF viewRect) {
+	public void init(Vector<BotzParticle> particles, float left, float top,
+			float right, float bottom) {
 		mParticles = particles;
-		mViewRect.set(viewRect);
+		reserve(particles.size(), 0);
+		takeReserved();
+		mViewLeft = left;
+		mViewTop = top;
+		mViewRight = right;
+		mViewBottom = bottom;
 
 		mTimeLast = -1;
 
 		for (int i = 0; i < mParticles.size(); ++i) {
+			initParticle(mParticles.get(i));
+		}
+		mAwakeCount = mParticles.size();
+	}
+
+	/**
+	 * Stores up to k enabled particles nearest to given position into result
+	 * array, nearest first. Quadtree is built for the query if it was not
+	 * built during latest animation step.
+	 *
+	 * @return Number of particles stored, at most k and result array length.
+	 */
+	public int queryNearest(float x, float y, int k, BotzParticle[] result) {
+		validateQuadTree();
+		int count = mQuadTree.queryNearest(x, y,
+				Math.min(k, result.length), mQueryIndices, mQueryDist2);
+		for (int i = 0; i < count; ++i) {
+			result[i] = mParticles.get(mQueryIndices[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Stores enabled particles within distance from given position into
+	 * result array. Quadtree is used if it was built during latest animation
+	 * step, otherwise all particles are iterated.
+	 *
+	 * @return Number of particles stored, at most result array length.
+	 */
+	public int queryParticles(float x, float y, float dist,
+			BotzParticle[] result) {
+		if (mQuadTreeValid) {
+			int count = mQuadTree.queryRadius(x, y, dist, mQueryIndices);
+			count = Math.min(count, result.length);
+			for (int i = 0; i < count; ++i) {
+				result[i] = mParticles.get(mQueryIndices[i]);
+			}
+			return count;
+		}
+		int count = 0;
+		for (int i = 0; i < mParticles.size() && count < result.length; ++i) {
+			BotzParticle p = mParticles.get(i);
+			float dx = p.mPosition[0] - x;
+			float dy = p.mPosition[1] - y;
+			if (p.mEnabled && dx * dx + dy * dy < dist * dist) {
+				result[count++] = p;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns enabled particle hit first by ray starting from given position
+	 * towards given unit direction within given length, or null if ray hits
+	 * none. Quadtree is built for the query if it was not built during latest
+	 * animation step.
+	 *
+	 * @param hit
+	 *            Array of size 1 for storing distance along ray to hit, or
+	 *            null.
+	 */
+	public BotzParticle queryRay(float x, float y, float dirX, float dirY,
+			float length, float[] hit) {
+		validateQuadTree();
+		int index = mQuadTree.queryRay(x, y, dirX, dirY, length, hit);
+		return index == -1 ? null : mParticles.get(index);
+	}
+
+	/**
+	 * Spreads lower 16 bits of given value into even bits.
+	 */
+	private static int mortonSpread(int v) {
+		v &= 0x0000FFFF;
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+
+	/**
+	 * Sorts particles along Z-order (Morton) curve of their positions once
+	 * measured disorder exceeds REORDER_DISORDER. Neighbouring particles end
+	 * up close to each other in particle Vector which keeps neighbour based
+	 * passes more coherent.
+	 */
+	private void reorder() {
+		final int count = mParticles.size();
+
+		// Calculate Morton codes from positions quantized into 16 bits per
+		// axis and count particles out of order.
+		final float sx = 65535f / (mViewRight - mViewLeft);
+		final float sy = 65535f / (mViewTop - mViewBottom);
+		int disorder = 0, lastKey = Integer.MIN_VALUE;
+		for (int i = 0; i < count; ++i) {
 			BotzParticle p = mParticles.get(i);
-			p.mPosition[0] = rand(mViewRect.left, mViewRect.right);
-			p.mPosition[1] = rand(mViewRect.bottom, mViewRect.top);
-			p.mVelocity[0] = rand(-.5f, .5f);
-			p.mVelocity[1] = rand(-.5f, .5f);
-			p.mEnabled = true;
+			int x = (int) ((p.mPosition[0] - mViewLeft) * sx);
+			int y = (int) ((p.mPosition[1] - mViewBottom) * sy);
+			x = Math.max(0, Math.min(65535, x));
+			y = Math.max(0, Math.min(65535, y));
+			mReorderCodes[i] = mortonSpread(x) | (mortonSpread(y) << 1);
+			mReorderIndices[i] = i;
+			// Codes are compared as unsigned values.
+			int key = mReorderCodes[i] ^ 0x80000000;
+			if (key < lastKey) {
+				++disorder;
+			}
+			lastKey = key;
+		}
+		if (disorder <= count * REORDER_DISORDER) {
+			return;
+		}
+
+		// LSD radix sort with 8 bit digits, stable and linear in particle
+		// count.
+		int[] codes = mReorderCodes, codesTemp = mReorderCodesTemp;
+		int[] indices = mReorderIndices, indicesTemp = mReorderIndicesTemp;
+		final int[] offsets = mReorderOffsets;
+		for (int shift = 0; shift < 32; shift += 8) {
+			for (int i = 0; i < 256; ++i) {
+				offsets[i] = 0;
+			}
+			for (int i = 0; i < count; ++i) {
+				++offsets[(codes[i] >>> shift) & 0xFF];
+			}
+			for (int i = 0, sum = 0; i < 256; ++i) {
+				int c = offsets[i];
+				offsets[i] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < count; ++i) {
+				int pos = offsets[(codes[i] >>> shift) & 0xFF]++;
+				codesTemp[pos] = codes[i];
+				indicesTemp[pos] = indices[i];
+			}
+			int[] t = codes;
+			codes = codesTemp;
+			codesTemp = t;
+			t = indices;
+			indices = indicesTemp;
+			indicesTemp = t;
+		}
+
+		// Even number of passes leaves sorted data in original arrays.
+		for (int i = 0; i < count; ++i) {
+			mReorderParticles[i] = mParticles.get(i);
+		}
+		for (int i = 0; i < count; ++i) {
+			mParticles.set(i, mReorderParticles[indices[i]]);
+			mReorderParticles[indices[i]] = null;
+		}
+	}
+
+	/**
+	 * Allocates storage for given number of particles and collision events
+	 * if current storage is smaller. Can be called from any thread, storage
+	 * is taken into use at start of next animation step and stepping itself
+	 * never allocates.
+	 */
+	public synchronized void reserve(int particleCount, int collisionCount) {
+		BotzCollisions collisions = mReservedCollisions != null ? mReservedCollisions
+				: mCollisions;
+		if (collisionCount > collisions.getCapacity()) {
+			mReservedCollisions = new BotzCollisions(collisionCount);
+		}
+		if (particleCount > mReservedParticleCount) {
+			mReservedParticleCount = particleCount;
+			mReservedQuadTree = new BotzQuadTree(particleCount);
+			mReservedReorder = new int[4][particleCount];
+			mReservedReorderParticles = new BotzParticle[particleCount];
+		}
+	}
+
+	/**
+	 * Sets force field interaction distance. Default value is .4f.
+	 */
+	public void setForceDistance(float dist) {
+		mForceDist = dist;
+	}
+
+	/**
+	 * Sets force mode, either FORCE_PAIRWISE or FORCE_BARNES_HUT.
+	 */
+	public void setForceMode(int mode) {
+		mForceMode = mode;
+	}
+
+	/**
+	 * Sets Barnes-Hut opening angle. Smaller values give more accurate
+	 * results, zero being exact.
+	 */
+	public void setForceTheta(float theta) {
+		mForceTheta = theta;
+	}
+
+	/**
+	 * Sets random number generator used for placing particles.
+	 */
+	public void setRandom(Random random) {
+		mRandom = random;
+	}
+
+	/**
+	 * Takes storage allocated by reserve into use.
+	 */
+	private synchronized void takeReserved() {
+		if (mReservedCollisions != null) {
+			mCollisions = mReservedCollisions;
+			mReservedCollisions = null;
+		}
+		if (mReservedQuadTree != null) {
+			mQuadTree = mReservedQuadTree;
+			mReorderCodes = mReservedReorder[0];
+			mReorderCodesTemp = mReservedReorder[1];
+			mReorderIndices = mReservedReorder[2];
+			mReorderIndicesTemp = mReservedReorder[3];
+			mReorderParticles = mReservedReorderParticles;
+			mReservedQuadTree = null;
+			mReservedReorder = null;
+			mReservedReorderParticles = null;
+		}
+	}
+
+	/**
+	 * Builds quadtree from current particle positions unless it was built
+	 * already after particles moved.
+	 */
+	private void validateQuadTree() {
+		if (!mQuadTreeValid) {
+			mQuadTree.build(mParticles);
+			mQuadTreeValid = true;
+		}
+	}
+
+	/**
+	 * Wakes up given particle.
+	 */
+	public void wake(BotzParticle p) {
+		if (p.mSleeping) {
+			++mAwakeCount;
 		}
+		p.mSleeping = false;
+		p.mSleepSteps = 0;
 	}
 
 	/**
 	 * Generates random value between [min, max).
 	 */
 	private float rand(float min, float max) {
-		return (float) (min + Math.random() * (max - min));
+		return min + mRandom.nextFloat() * (max - min);
 	}
 
 }
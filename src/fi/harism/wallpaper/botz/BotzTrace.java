@@ -0,0 +1,332 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.botz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary trace of everything scene simulation depends on; random seed,
+ * surface sizes, frame times, touch impulses, entity counts and force mode.
+ * Records are written as they happen, trace starts with a header holding
+ * seed followed by records of one tag byte and record data. Frame times are
+ * stored as variable length deltas, a few bytes per frame. Checksum of
+ * simulation state is written every once in a while for verifying replay.
+ * Trace is closed once MAX_FRAMES frames are recorded, keeping its size in
+ * the order of a hundred kilobytes.
+ */
+public final class BotzTrace {
+
+	// Frames between state checksum records.
+	public static final int CHECKSUM_INTERVAL = 60;
+	// Frames recorded at most, ten minutes at 60 frames per second. Multiple
+	// of CHECKSUM_INTERVAL so that trace ends with a checksum.
+	public static final int MAX_FRAMES = 60 * 60 * 10;
+	// Trace file identifier 'BOTZ' and format version. Version is bumped
+	// whenever simulation changes, older traces would not replay to same
+	// state.
+	public static final int MAGIC = 0x424F545A;
+	public static final int VERSION = 4;
+
+	// Record tags.
+	public static final int TAG_CHECKSUM = 1;
+	public static final int TAG_COUNTS = 2;
+	public static final int TAG_FORCE_MODE = 3;
+	public static final int TAG_FRAME = 4;
+	public static final int TAG_IMPULSE = 5;
+	public static final int TAG_SURFACE = 6;
+
+	private int mFrameCount;
+	private long mFrameTime;
+	// Log for write errors and trace ending.
+	private final BotzLog mLog;
+	private DataOutputStream mOut;
+
+	/**
+	 * Starts trace into given stream and writes header with given seed.
+	 * Errors are reported into given log.
+	 */
+	public BotzTrace(OutputStream out, long seed, BotzLog log) {
+		mLog = log;
+		mOut = new DataOutputStream(new BufferedOutputStream(out));
+		try {
+			mOut.writeInt(MAGIC);
+			mOut.writeInt(VERSION);
+			mOut.writeLong(seed);
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Flushes and closes trace stream.
+	 */
+	public synchronized void close() {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.close();
+		} catch (IOException ex) {
+			mLog.e("BotzTrace", "Trace not closed cleanly", ex);
+		}
+		mOut = null;
+	}
+
+	/**
+	 * Stops tracing after write error, rest of the trace is lost but scene
+	 * keeps running.
+	 */
+	private void fail(IOException ex) {
+		mLog.e("BotzTrace", "Trace stopped on write error", ex);
+		try {
+			mOut.close();
+		} catch (IOException ex2) {
+		}
+		mOut = null;
+	}
+
+	/**
+	 * Returns true if checksum should be written after latest frame, false
+	 * once trace has been closed.
+	 */
+	public synchronized boolean isChecksumFrame() {
+		return mOut != null && mFrameCount % CHECKSUM_INTERVAL == 0;
+	}
+
+	/**
+	 * Writes checksum of simulation state after latest frame. Stream is
+	 * flushed, so trace is usable up to here even if process dies. Trace is
+	 * closed here once it holds MAX_FRAMES frames.
+	 */
+	public synchronized void writeChecksum(int checksum) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_CHECKSUM);
+			mOut.writeInt(checksum);
+			mOut.flush();
+		} catch (IOException ex) {
+			fail(ex);
+			return;
+		}
+		if (mFrameCount >= MAX_FRAMES) {
+			mLog.d("BotzTrace", "Trace closed after " + mFrameCount
+					+ " frames");
+			close();
+		}
+	}
+
+	/**
+	 * Writes entity counts taken into use for next frame.
+	 */
+	public synchronized void writeCounts(int shipCount, int bulletCount) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_COUNTS);
+			writeVarLong(shipCount);
+			writeVarLong(bulletCount);
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Writes solver force mode taken into use for next frame.
+	 */
+	public synchronized void writeForceMode(int mode) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_FORCE_MODE);
+			mOut.writeByte(mode);
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Writes frame built at given time, in milliseconds. Records written
+	 * before frame apply to it.
+	 */
+	public synchronized void writeFrame(long time) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_FRAME);
+			writeVarLong(time - mFrameTime);
+			mFrameTime = time;
+			++mFrameCount;
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Writes touch impulse added to particle velocities on next frame.
+	 */
+	public synchronized void writeImpulse(float dx, float dy) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_IMPULSE);
+			mOut.writeFloat(dx);
+			mOut.writeFloat(dy);
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Writes surface size change.
+	 */
+	public synchronized void writeSurface(int width, int height) {
+		if (mOut == null) {
+			return;
+		}
+		try {
+			mOut.writeByte(TAG_SURFACE);
+			writeVarLong(width);
+			writeVarLong(height);
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	/**
+	 * Writes signed value as zigzag encoded variable length integer, seven
+	 * bits per byte.
+	 */
+	private void writeVarLong(long value) throws IOException {
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			mOut.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		mOut.writeByte((int) v);
+	}
+
+	/**
+	 * Trace reader, reads records one at a time into public fields.
+	 */
+	public static final class Reader {
+
+		public int mBulletCount;
+		public int mChecksum;
+		public int mForceMode;
+		public float mImpulseX, mImpulseY;
+		private final DataInputStream mIn;
+		public final long mSeed;
+		public int mShipCount;
+		public long mTime;
+		public int mWidth, mHeight;
+
+		/**
+		 * Opens trace from given stream and reads header.
+		 */
+		public Reader(InputStream in) throws IOException {
+			mIn = new DataInputStream(new BufferedInputStream(in));
+			if (mIn.readInt() != MAGIC) {
+				throw new IOException("Not a Botz trace");
+			}
+			int version = mIn.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported trace version " + version);
+			}
+			mSeed = mIn.readLong();
+		}
+
+		/**
+		 * Closes trace stream.
+		 */
+		public void close() throws IOException {
+			mIn.close();
+		}
+
+		/**
+		 * Reads next record and stores its data into fields matching
+		 * record type.
+		 * 
+		 * @return Record tag or -1 at end of trace.
+		 */
+		public int next() throws IOException {
+			int tag = mIn.read();
+			try {
+				switch (tag) {
+				case -1:
+					break;
+				case TAG_CHECKSUM:
+					mChecksum = mIn.readInt();
+					break;
+				case TAG_COUNTS:
+					mShipCount = (int) readVarLong();
+					mBulletCount = (int) readVarLong();
+					break;
+				case TAG_FORCE_MODE:
+					mForceMode = mIn.readByte();
+					break;
+				case TAG_FRAME:
+					mTime += readVarLong();
+					break;
+				case TAG_IMPULSE:
+					mImpulseX = mIn.readFloat();
+					mImpulseY = mIn.readFloat();
+					break;
+				case TAG_SURFACE:
+					mWidth = (int) readVarLong();
+					mHeight = (int) readVarLong();
+					break;
+				default:
+					throw new IOException("Unknown record tag " + tag);
+				}
+			} catch (EOFException ex) {
+				// Trace cut in the middle of a record, process died while
+				// recording.
+				return -1;
+			}
+			return tag;
+		}
+
+		/**
+		 * Reads zigzag encoded variable length integer.
+		 */
+		private long readVarLong() throws IOException {
+			long v = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = mIn.readUnsignedByte();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			return (v >>> 1) ^ -(v & 1);
+		}
+	}
+
+}